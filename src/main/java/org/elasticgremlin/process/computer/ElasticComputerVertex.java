@@ -0,0 +1,192 @@
+package org.elasticgremlin.process.computer;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.apache.tinkerpop.gremlin.structure.util.*;
+import org.apache.tinkerpop.gremlin.structure.util.detached.*;
+import org.elasticgremlin.structure.*;
+import org.javatuples.Pair;
+
+import java.util.*;
+
+/**
+ * A vertex of a computer partition: its adjacency is loaded once for all iterations and the compute keys written by
+ * the vertex program are kept in memory until they are persisted. The adjacency only keeps the ids, labels and
+ * properties of the edges and their other vertices, the edges and adjacent vertices handed to the program are
+ * detached ones built from them.
+ */
+public class ElasticComputerVertex implements Vertex {
+
+    private final BaseVertex vertex;
+    private final Set<String> computeKeys;
+    private final Map<String, VertexProperty> computeProperties = new HashMap<>();
+    private static final byte OUT = 1;
+    private static final byte IN = 2;
+    private static final Object[] NO_IDS = new Object[0];
+    private static final String[] NO_LABELS = new String[0];
+    private static final byte[] NO_DIRECTIONS = new byte[0];
+
+    private Object[] edgeIds = NO_IDS;
+    private String[] edgeLabels = NO_LABELS;
+    private Object[] adjacentIds = NO_IDS;
+    private String[] adjacentLabels = NO_LABELS;
+    // OUT, IN or both for a self loop
+    private byte[] directions = NO_DIRECTIONS;
+    // null unless one of the edges has properties
+    private Map<String, Object>[] edgeProperties = null;
+
+    public ElasticComputerVertex(BaseVertex vertex, Set<String> computeKeys) {
+        this.vertex = vertex;
+        this.computeKeys = computeKeys;
+    }
+
+    public BaseVertex getBaseVertex() {
+        return vertex;
+    }
+
+    public void setEdges(Collection<Edge> edges) {
+        int size = edges.size();
+        edgeIds = new Object[size];
+        edgeLabels = new String[size];
+        adjacentIds = new Object[size];
+        adjacentLabels = new String[size];
+        directions = new byte[size];
+        edgeProperties = null;
+        int index = 0;
+        for (Edge edge : edges) {
+            Vertex outVertex = edge.outVertex();
+            Vertex inVertex = edge.inVertex();
+            byte direction = 0;
+            if (outVertex.id().equals(vertex.id())) direction |= OUT;
+            if (inVertex.id().equals(vertex.id())) direction |= IN;
+            Vertex adjacent = direction == IN ? outVertex : inVertex;
+            edgeIds[index] = edge.id();
+            // the labels repeat across the whole graph, so they are shared rather than kept per edge
+            edgeLabels[index] = edge.label().intern();
+            adjacentIds[index] = adjacent.id();
+            adjacentLabels[index] = adjacent.label().intern();
+            directions[index] = direction;
+            Iterator<Property<Object>> properties = edge.properties();
+            if (properties.hasNext()) {
+                if (edgeProperties == null) edgeProperties = new Map[size];
+                Map<String, Object> values = new HashMap<>();
+                properties.forEachRemaining(property -> values.put(property.key(), property.value()));
+                edgeProperties[index] = values;
+            }
+            index++;
+        }
+    }
+
+    public Map<String, VertexProperty> getComputeProperties() {
+        return computeProperties;
+    }
+
+    @Override
+    public Object id() {
+        return vertex.id();
+    }
+
+    @Override
+    public String label() {
+        return vertex.label();
+    }
+
+    @Override
+    public Graph graph() {
+        return vertex.graph();
+    }
+
+    @Override
+    public Edge addEdge(String label, Vertex inVertex, Object... keyValues) {
+        return vertex.addEdge(label, inVertex, keyValues);
+    }
+
+    @Override
+    public <V> VertexProperty<V> property(String key, V value) {
+        return property(VertexProperty.Cardinality.single, key, value);
+    }
+
+    @Override
+    public <V> VertexProperty<V> property(VertexProperty.Cardinality cardinality, String key, V value, Object... keyValues) {
+        if (!computeKeys.contains(key)) return vertex.property(cardinality, key, value, keyValues);
+        ElementHelper.validateProperty(key, value);
+        VertexProperty<V> property = new BaseVertexProperty<V>(vertex, key, value) {
+            @Override
+            public void remove() {
+                computeProperties.remove(key);
+            }
+        };
+        computeProperties.put(key, property);
+        return property;
+    }
+
+    @Override
+    public <V> Iterator<VertexProperty<V>> properties(String... propertyKeys) {
+        List<VertexProperty<V>> properties = new ArrayList<>();
+        if (propertyKeys.length == 0) {
+            computeProperties.values().forEach(property -> properties.add(property));
+            vertex.<V>properties().forEachRemaining(properties::add);
+            return properties.iterator();
+        }
+        for (String key : propertyKeys) {
+            if (computeKeys.contains(key)) {
+                VertexProperty property = computeProperties.get(key);
+                if (property != null) properties.add(property);
+            }
+            else vertex.<V>properties(key).forEachRemaining(properties::add);
+        }
+        return properties.iterator();
+    }
+
+    @Override
+    public Iterator<Edge> edges(Direction direction, String... edgeLabels) {
+        List<Edge> result = new ArrayList<>();
+        for (int i = 0; i < edgeIds.length; i++) {
+            if (!matches(i, direction, edgeLabels)) continue;
+            Pair<Object, String> self = Pair.with(vertex.id(), vertex.label());
+            Pair<Object, String> adjacent = Pair.with(adjacentIds[i], adjacentLabels[i]);
+            boolean out = (directions[i] & OUT) != 0;
+            Map<String, Object> properties = edgeProperties == null || edgeProperties[i] == null ?
+                    Collections.emptyMap() : edgeProperties[i];
+            result.add(new DetachedEdge(edgeIds[i], this.edgeLabels[i], properties, out ? self : adjacent, out ? adjacent : self));
+        }
+        return result.iterator();
+    }
+
+    @Override
+    public Iterator<Vertex> vertices(Direction direction, String... edgeLabels) {
+        List<Vertex> result = new ArrayList<>();
+        for (int i = 0; i < edgeIds.length; i++)
+            if (matches(i, direction, edgeLabels))
+                result.add(new DetachedVertex(adjacentIds[i], adjacentLabels[i], Collections.emptyMap()));
+        return result.iterator();
+    }
+
+    private boolean matches(int index, Direction direction, String[] edgeLabels) {
+        if (direction.equals(Direction.OUT) && (directions[index] & OUT) == 0) return false;
+        if (direction.equals(Direction.IN) && (directions[index] & IN) == 0) return false;
+        if (edgeLabels.length == 0) return true;
+        for (String label : edgeLabels)
+            if (label.equals(this.edgeLabels[index])) return true;
+        return false;
+    }
+
+    @Override
+    public void remove() {
+        vertex.remove();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return ElementHelper.areEqual(this, object);
+    }
+
+    @Override
+    public int hashCode() {
+        return ElementHelper.hashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return StringFactory.vertexString(this);
+    }
+}
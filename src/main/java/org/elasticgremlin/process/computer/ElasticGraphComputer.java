@@ -0,0 +1,264 @@
+package org.elasticgremlin.process.computer;
+
+import org.apache.tinkerpop.gremlin.process.computer.*;
+import org.apache.tinkerpop.gremlin.process.computer.util.*;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.*;
+import org.elasticgremlin.structure.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs vertex programs and map reducers inside this JVM. Every shard of the index is a partition that is scanned
+ * once, its adjacency fetched in batches and kept in memory for all iterations, and the partitions are processed
+ * in parallel on a fork-join pool. The partitions are loaded one after the other, since the graph's query handlers
+ * aren't safe to use from several threads at once. The results can only be persisted to the original graph.
+ */
+public class ElasticGraphComputer implements GraphComputer {
+
+    private final ElasticGraph graph;
+    private final int threads;
+    private final int batchSize;
+    private ResultGraph resultGraph = null;
+    private Persist persist = null;
+    private VertexProgram<?> vertexProgram = null;
+    private final Set<MapReduce> mapReducers = new HashSet<>();
+    private boolean executed = false;
+
+    public ElasticGraphComputer(ElasticGraph graph) {
+        this.graph = graph;
+        this.threads = graph.configuration().getInt("elasticsearch.computer.threads", Runtime.getRuntime().availableProcessors());
+        this.batchSize = graph.configuration().getInt("elasticsearch.vertexBatchSize", 1000);
+    }
+
+    @Override
+    public GraphComputer result(ResultGraph resultGraph) {
+        this.resultGraph = resultGraph;
+        return this;
+    }
+
+    @Override
+    public GraphComputer persist(Persist persist) {
+        this.persist = persist;
+        return this;
+    }
+
+    @Override
+    public GraphComputer program(VertexProgram vertexProgram) {
+        this.vertexProgram = vertexProgram;
+        return this;
+    }
+
+    @Override
+    public GraphComputer mapReduce(MapReduce mapReduce) {
+        this.mapReducers.add(mapReduce);
+        return this;
+    }
+
+    @Override
+    public Future<ComputerResult> submit() {
+        if (executed) throw Exceptions.computerHasAlreadyBeenSubmittedAVertexProgram();
+        executed = true;
+        if (vertexProgram == null && mapReducers.isEmpty()) throw Exceptions.computerHasNoVertexProgramNorMapReducers();
+        if (vertexProgram != null) {
+            GraphComputerHelper.validateProgramOnComputer(this, vertexProgram);
+            mapReducers.addAll(vertexProgram.getMapReducers());
+        }
+        // the graph is always the one that is computed on, whatever result graph the program would prefer
+        if (resultGraph == null) resultGraph = ResultGraph.ORIGINAL;
+        persist = GraphComputerHelper.getPersistState(Optional.ofNullable(vertexProgram), Optional.ofNullable(persist));
+        if (!features().supportsResultGraphPersistCombination(resultGraph, persist))
+            throw Exceptions.resultGraphPersistCombinationNotSupported(resultGraph, persist);
+
+        return CompletableFuture.supplyAsync(() -> {
+            long time = System.currentTimeMillis();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ElasticMemory memory = new ElasticMemory(vertexProgram, mapReducers);
+                List<List<ElasticComputerVertex>> partitions = loadPartitions();
+                if (vertexProgram != null) executeVertexProgram(pool, partitions, memory);
+                for (MapReduce mapReduce : mapReducers) executeMapReduce(pool, partitions, mapReduce, memory);
+                memory.completeSubRound();
+                memory.setRuntime(System.currentTimeMillis() - time);
+                if (persist != Persist.NOTHING) persistComputeKeys(partitions);
+                return new DefaultComputerResult(graph, memory.asImmutable());
+            }
+            finally {
+                pool.shutdown();
+            }
+        });
+    }
+
+    private List<List<ElasticComputerVertex>> loadPartitions() {
+        QueryHandler queryHandler = graph.getQueryHandler();
+        int partitionCount = queryHandler instanceof PartitionHandler ? ((PartitionHandler) queryHandler).partitions() : 1;
+        List<List<ElasticComputerVertex>> partitions = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) partitions.add(new ArrayList<>());
+        Set<String> computeKeys = vertexProgram == null ? Collections.emptySet() : vertexProgram.getElementComputeKeys();
+
+        for (int index = 0; index < partitions.size(); index++) {
+            List<ElasticComputerVertex> partition = partitions.get(index);
+            Iterator<? extends Vertex> vertices = queryHandler instanceof PartitionHandler ?
+                    ((PartitionHandler) queryHandler).vertices(index) : queryHandler.vertices();
+            List<ElasticComputerVertex> batch = new ArrayList<>();
+            try {
+                vertices.forEachRemaining(vertex -> {
+                    batch.add(new ElasticComputerVertex((BaseVertex) vertex, computeKeys));
+                    if (batch.size() >= batchSize) {
+                        loadEdges(batch);
+                        partition.addAll(batch);
+                        batch.clear();
+                    }
+                });
+            }
+            finally {
+                close(vertices);
+            }
+            loadEdges(batch);
+            partition.addAll(batch);
+        }
+        return partitions;
+    }
+
+    // a failed batch leaves the rest of the scan, whose scroll contexts would stay open until they expire
+    private static void close(Iterator<?> iterator) {
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private void loadEdges(List<ElasticComputerVertex> batch) {
+        if (batch.isEmpty()) return;
+        List<BaseVertex> vertices = new ArrayList<>();
+        batch.forEach(vertex -> vertices.add(vertex.getBaseVertex()));
+        Map<Object, Set<Edge>> edges = graph.getQueryHandler().edges(vertices.iterator(), Direction.BOTH, new String[0], new Predicates());
+        batch.forEach(vertex -> {
+            Set<Edge> vertexEdges = edges.get(vertex.id());
+            if (vertexEdges != null) vertex.setEdges(vertexEdges);
+        });
+    }
+
+    private void executeVertexProgram(ForkJoinPool pool, List<List<ElasticComputerVertex>> partitions, ElasticMemory memory) {
+        VertexProgramPool programPool = new VertexProgramPool(vertexProgram, partitions.size());
+        ElasticMessenger.MessageBoard messageBoard = new ElasticMessenger.MessageBoard(vertexProgram.getMessageCombiner());
+        vertexProgram.setup(memory);
+        memory.completeSubRound();
+        while (true) {
+            forEachPartition(pool, partitions.size(), index -> {
+                VertexProgram<?> workerProgram = programPool.take();
+                workerProgram.workerIterationStart(memory.asImmutable());
+                partitions.get(index).forEach(vertex -> workerProgram.execute(ComputerGraph.vertexProgram(vertex, workerProgram),
+                        new ElasticMessenger(vertex, messageBoard), memory));
+                workerProgram.workerIterationEnd(memory.asImmutable());
+                programPool.offer(workerProgram);
+            });
+            messageBoard.completeIteration();
+            memory.completeSubRound();
+            boolean terminate = vertexProgram.terminate(memory);
+            memory.incrIteration();
+            memory.completeSubRound();
+            if (terminate) return;
+        }
+    }
+
+    private void executeMapReduce(ForkJoinPool pool, List<List<ElasticComputerVertex>> partitions, MapReduce mapReduce, ElasticMemory memory) {
+        if (!mapReduce.doStage(MapReduce.Stage.MAP)) return;
+        MapReducePool mapReducePool = new MapReducePool(mapReduce, partitions.size());
+        Queue<KeyValue> mapResults = new ConcurrentLinkedQueue<>();
+        forEachPartition(pool, partitions.size(), index -> {
+            MapReduce workerMapReduce = mapReducePool.take();
+            workerMapReduce.workerStart(MapReduce.Stage.MAP);
+            partitions.get(index).forEach(vertex -> workerMapReduce.map(ComputerGraph.mapReduce(vertex), (key, value) -> mapResults.add(new KeyValue<>(key, value))));
+            workerMapReduce.workerEnd(MapReduce.Stage.MAP);
+            mapReducePool.offer(workerMapReduce);
+        });
+
+        List<KeyValue> results;
+        if (mapReduce.doStage(MapReduce.Stage.REDUCE)) {
+            Optional<Comparator> mapKeySort = mapReduce.getMapKeySort();
+            Map<Object, List<Object>> groups = mapKeySort.isPresent() ? new TreeMap<>(mapKeySort.get()) : new LinkedHashMap<>();
+            mapResults.forEach(keyValue -> groups.computeIfAbsent(keyValue.getKey(), key -> new ArrayList<>()).add(keyValue.getValue()));
+            // this is a single machine, so there is nothing for a combine stage to save
+            results = new ArrayList<>();
+            mapReduce.workerStart(MapReduce.Stage.REDUCE);
+            groups.forEach((key, values) -> mapReduce.reduce(key, values.iterator(), (reduceKey, reduceValue) -> results.add(new KeyValue<>(reduceKey, reduceValue))));
+            mapReduce.workerEnd(MapReduce.Stage.REDUCE);
+            Optional<Comparator> reduceKeySort = mapReduce.getReduceKeySort();
+            if (reduceKeySort.isPresent()) results.sort((first, second) -> reduceKeySort.get().compare(first.getKey(), second.getKey()));
+        }
+        else {
+            results = new ArrayList<>(mapResults);
+            Optional<Comparator> mapKeySort = mapReduce.getMapKeySort();
+            if (mapKeySort.isPresent()) results.sort((first, second) -> mapKeySort.get().compare(first.getKey(), second.getKey()));
+        }
+        mapReduce.addResultToMemory(memory, results.iterator());
+    }
+
+    private void persistComputeKeys(List<List<ElasticComputerVertex>> partitions) {
+        partitions.forEach(partition -> partition.forEach(vertex ->
+                vertex.getComputeProperties().values().forEach(property -> vertex.getBaseVertex().property(property.key(), property.value()))));
+        graph.commit();
+    }
+
+    private void forEachPartition(ForkJoinPool pool, int partitions, IntConsumer task) {
+        try {
+            pool.submit(() -> IntStream.range(0, partitions).parallel().forEach(task)).get();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    @Override
+    public Features features() {
+        return new Features() {
+            @Override
+            public boolean supportsVertexAddition() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsVertexRemoval() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsVertexPropertyRemoval() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsEdgeAddition() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsEdgeRemoval() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsEdgePropertyAddition() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsEdgePropertyRemoval() {
+                return false;
+            }
+
+            @Override
+            public boolean supportsResultGraphPersistCombination(ResultGraph resultGraph, Persist persist) {
+                return resultGraph == ResultGraph.ORIGINAL;
+            }
+        };
+    }
+}
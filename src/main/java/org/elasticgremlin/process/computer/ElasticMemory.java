@@ -0,0 +1,99 @@
+package org.elasticgremlin.process.computer;
+
+import org.apache.tinkerpop.gremlin.process.computer.*;
+import org.apache.tinkerpop.gremlin.process.computer.util.MemoryHelper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values written during an iteration become visible to get() once the iteration completes.
+ */
+public class ElasticMemory implements Memory.Admin {
+
+    private final Set<String> memoryKeys = new HashSet<>();
+    private Map<String, Object> previousMap = new ConcurrentHashMap<>();
+    private final Map<String, Object> currentMap = new ConcurrentHashMap<>();
+    private volatile int iteration = 0;
+    private volatile long runtime = 0;
+
+    public ElasticMemory(VertexProgram<?> vertexProgram, Set<MapReduce> mapReducers) {
+        if (vertexProgram != null) memoryKeys.addAll(vertexProgram.getMemoryComputeKeys());
+        mapReducers.forEach(mapReduce -> memoryKeys.add(mapReduce.getMemoryKey()));
+    }
+
+    @Override
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(previousMap.keySet());
+    }
+
+    @Override
+    public <R> R get(String key) throws IllegalArgumentException {
+        R value = (R) previousMap.get(key);
+        if (value == null) throw Memory.Exceptions.memoryDoesNotExist(key);
+        return value;
+    }
+
+    @Override
+    public void set(String key, Object value) {
+        checkKeyValue(key, value);
+        currentMap.put(key, value);
+    }
+
+    @Override
+    public void incr(String key, long delta) {
+        checkKeyValue(key, delta);
+        currentMap.compute(key, (k, value) -> value == null ? delta : (Long) value + delta);
+    }
+
+    @Override
+    public void and(String key, boolean bool) {
+        checkKeyValue(key, bool);
+        currentMap.compute(key, (k, value) -> value == null ? bool : (Boolean) value && bool);
+    }
+
+    @Override
+    public void or(String key, boolean bool) {
+        checkKeyValue(key, bool);
+        currentMap.compute(key, (k, value) -> value == null ? bool : (Boolean) value || bool);
+    }
+
+    @Override
+    public int getIteration() {
+        return iteration;
+    }
+
+    @Override
+    public long getRuntime() {
+        return runtime;
+    }
+
+    @Override
+    public void incrIteration() {
+        iteration++;
+    }
+
+    @Override
+    public void setIteration(int iteration) {
+        this.iteration = iteration;
+    }
+
+    @Override
+    public void setRuntime(long runtime) {
+        this.runtime = runtime;
+    }
+
+    public void completeSubRound() {
+        previousMap = new ConcurrentHashMap<>(currentMap);
+    }
+
+    private void checkKeyValue(String key, Object value) {
+        if (!memoryKeys.contains(key)) throw GraphComputer.Exceptions.providedKeyIsNotAMemoryComputeKey(key);
+        MemoryHelper.validateValue(value);
+    }
+
+    @Override
+    public String toString() {
+        return "memory[size:" + previousMap.size() + "]";
+    }
+}
@@ -0,0 +1,79 @@
+package org.elasticgremlin.process.computer;
+
+import org.apache.tinkerpop.gremlin.process.computer.*;
+import org.apache.tinkerpop.gremlin.process.traversal.Traversal;
+import org.apache.tinkerpop.gremlin.process.traversal.step.map.VertexStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.sideEffect.StartStep;
+import org.apache.tinkerpop.gremlin.structure.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ElasticMessenger<M> implements Messenger<M> {
+
+    private final ElasticComputerVertex vertex;
+    private final MessageBoard<M> messageBoard;
+
+    public ElasticMessenger(ElasticComputerVertex vertex, MessageBoard<M> messageBoard) {
+        this.vertex = vertex;
+        this.messageBoard = messageBoard;
+    }
+
+    @Override
+    public Iterator<M> receiveMessages() {
+        return messageBoard.receive(vertex.id());
+    }
+
+    @Override
+    public void sendMessage(MessageScope messageScope, M message) {
+        if (messageScope instanceof MessageScope.Local) {
+            MessageScope.Local<M> localScope = (MessageScope.Local<M>) messageScope;
+            incidentEdges(localScope.getIncidentTraversal().get().asAdmin()).forEachRemaining(edge -> {
+                Vertex outVertex = edge.outVertex();
+                Object adjacentId = outVertex.id().equals(vertex.id()) ? edge.inVertex().id() : outVertex.id();
+                messageBoard.send(adjacentId, localScope.getEdgeFunction().apply(message, edge));
+            });
+        }
+        else ((MessageScope.Global) messageScope).vertices().forEach(adjacent -> messageBoard.send(adjacent.id(), message));
+    }
+
+    private Iterator<Edge> incidentEdges(Traversal.Admin<Vertex, Edge> incidentTraversal) {
+        // the usual outE()/inE()/bothE() scopes are answered from the loaded adjacency without running a traversal
+        if (incidentTraversal.getSteps().size() == 1 && incidentTraversal.getStartStep() instanceof VertexStep) {
+            VertexStep<?> vertexStep = (VertexStep) incidentTraversal.getStartStep();
+            if (vertexStep.getReturnClass().equals(Edge.class))
+                return vertex.edges(vertexStep.getDirection(), vertexStep.getEdgeLabels());
+        }
+        incidentTraversal.addStep(0, new StartStep<>(incidentTraversal, vertex));
+        return incidentTraversal;
+    }
+
+    public static class MessageBoard<M> {
+        private final MessageCombiner<M> combiner;
+        private Map<Object, List<M>> received = new ConcurrentHashMap<>();
+        private Map<Object, List<M>> sent = new ConcurrentHashMap<>();
+
+        public MessageBoard(Optional<MessageCombiner<M>> combiner) {
+            this.combiner = combiner.orElse(null);
+        }
+
+        public void send(Object vertexId, M message) {
+            sent.compute(vertexId, (id, messages) -> {
+                if (messages == null) messages = new ArrayList<>(1);
+                if (combiner != null && !messages.isEmpty()) messages.set(0, combiner.combine(messages.get(0), message));
+                else messages.add(message);
+                return messages;
+            });
+        }
+
+        public Iterator<M> receive(Object vertexId) {
+            List<M> messages = received.get(vertexId);
+            return messages == null ? Collections.emptyIterator() : messages.iterator();
+        }
+
+        public void completeIteration() {
+            received = sent;
+            sent = new ConcurrentHashMap<>();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.elasticgremlin.process.optimize;
+
+import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.AbstractStep;
+import org.apache.tinkerpop.gremlin.process.traversal.util.FastNoSuchElementException;
+
+import java.util.function.Supplier;
+
+public class ElasticAggregationStep<S, E> extends AbstractStep<S, E> {
+
+    private final Supplier<E> aggregation;
+    private boolean done = false;
+
+    public ElasticAggregationStep(Traversal.Admin traversal, Supplier<E> aggregation) {
+        super(traversal);
+        this.aggregation = aggregation;
+    }
+
+    @Override
+    protected Traverser<E> processNextStart() {
+        if (done) throw FastNoSuchElementException.instance();
+        done = true;
+        E result = aggregation.get();
+        if (result == null) throw FastNoSuchElementException.instance();
+        return this.getTraversal().getTraverserGenerator().generate(result, (Step) this, 1l);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        done = false;
+    }
+}
@@ -10,6 +10,7 @@ public class ElasticGraphStep<E extends Element> extends GraphStep<E> {
 
     private final Predicates predicates;
     private final QueryHandler queryHandler;
+    private Iterator<? extends Element> iterator = null;
 
     public ElasticGraphStep(GraphStep originalStep, Predicates predicates, QueryHandler queryHandler) {
         super(originalStep.getTraversal(), originalStep.getReturnClass(), originalStep.getIds());
@@ -18,7 +19,31 @@ public class ElasticGraphStep<E extends Element> extends GraphStep<E> {
         this.predicates = predicates;
         this.queryHandler = queryHandler;
 
-        this.setIteratorSupplier(() -> (Iterator<E>) (Vertex.class.isAssignableFrom(this.returnClass) ? this.vertices() : this.edges()));
+        this.setIteratorSupplier(() -> {
+            close();
+            iterator = Vertex.class.isAssignableFrom(this.returnClass) ? this.vertices() : this.edges();
+            return (Iterator<E>) iterator;
+        });
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        close();
+    }
+
+    // a traversal that is reset or started again drops the rest of its search, which would otherwise keep its scroll
+    // context open until the keep-alive expires
+    private void close() {
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        iterator = null;
     }
 
     private Iterator<? extends Vertex> vertices() {
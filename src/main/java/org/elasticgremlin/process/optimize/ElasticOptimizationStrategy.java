@@ -1,18 +1,29 @@
 package org.elasticgremlin.process.optimize;
 
 import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.lambda.*;
 import org.apache.tinkerpop.gremlin.process.traversal.step.HasContainerHolder;
-import org.apache.tinkerpop.gremlin.process.traversal.step.filter.RangeGlobalStep;
-import org.apache.tinkerpop.gremlin.process.traversal.step.map.VertexStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.branch.RepeatStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.filter.*;
+import org.apache.tinkerpop.gremlin.process.traversal.step.map.*;
 import org.apache.tinkerpop.gremlin.process.traversal.step.sideEffect.GraphStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.*;
 import org.apache.tinkerpop.gremlin.process.traversal.strategy.AbstractTraversalStrategy;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.TraverserRequirement;
 import org.apache.tinkerpop.gremlin.process.traversal.util.TraversalHelper;
 import org.apache.tinkerpop.gremlin.structure.*;
-import org.elasticgremlin.queryhandler.Predicates;
+import org.elasticgremlin.queryhandler.*;
 import org.elasticgremlin.structure.ElasticGraph;
+import org.javatuples.Pair;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.function.Supplier;
 
 public class ElasticOptimizationStrategy extends AbstractTraversalStrategy<TraversalStrategy.VendorOptimizationStrategy> {
     private static final ElasticOptimizationStrategy INSTANCE = new ElasticOptimizationStrategy();
+    // LoopTraversal doesn't expose its bound
+    private static final Field MAX_LOOPS = getMaxLoopsField();
     public static ElasticOptimizationStrategy instance() {
         return INSTANCE;
     }
@@ -23,10 +34,40 @@ public class ElasticOptimizationStrategy extends AbstractTraversalStrategy<Trave
         Graph graph = traversal.getGraph().get();
         if(!(graph instanceof ElasticGraph)) return;
         ElasticGraph elasticGraph = (ElasticGraph) graph;
+        int vertexBatchSize = elasticGraph.configuration().getInt("elasticsearch.vertexBatchSize", 1000);
+
+        TraversalHelper.getStepsOfClass(RepeatStep.class, traversal).forEach(repeatStep -> {
+            ElasticShortestPathStep shortestPathStep = getShortestPathStep(elasticGraph, traversal, repeatStep, vertexBatchSize);
+            if(shortestPathStep != null) {
+                TraversalHelper.replaceStep(repeatStep, shortestPathStep, traversal);
+                return;
+            }
+
+            List<VertexStep> vertexSteps = getRepeatedVertexSteps(traversal, repeatStep);
+            if(vertexSteps == null) return;
+            long times = getLoops(repeatStep);
+            if(times < 0) return;
+            Set<String> propertyKeys = repeatStep.getLabels().isEmpty() ? getPropertyKeys(repeatStep) : null;
+            ElasticRepeatStep elasticRepeatStep = new ElasticRepeatStep(traversal, vertexSteps, times, propertyKeys, vertexBatchSize);
+            repeatStep.getLabels().forEach(label -> elasticRepeatStep.addLabel(label.toString()));
+            TraversalHelper.replaceStep(repeatStep, elasticRepeatStep, traversal);
+        });
 
         TraversalHelper.getStepsOfClass(GraphStep.class, traversal).forEach(graphStep -> {
             if(graphStep.getIds().length == 0) {
-                Predicates predicates = getPredicates(graphStep, traversal);
+                Predicates predicates = getPredicates(graphStep, traversal, true, true);
+                Supplier aggregation = getAggregation(elasticGraph, traversal, graphStep, predicates);
+                if(aggregation != null) {
+                    ElasticAggregationStep aggregationStep = new ElasticAggregationStep(traversal, aggregation);
+                    Step lastStep = graphStep.getNextStep() instanceof PropertiesStep ? graphStep.getNextStep().getNextStep() : graphStep.getNextStep();
+                    lastStep.getLabels().forEach(label -> aggregationStep.addLabel(label.toString()));
+                    while(graphStep.getNextStep() != lastStep) traversal.removeStep(graphStep.getNextStep());
+                    traversal.removeStep(lastStep);
+                    TraversalHelper.replaceStep(graphStep, aggregationStep, traversal);
+                    return;
+                }
+                if(graphStep.getLabels().isEmpty() && predicates.labels.isEmpty())
+                    predicates.propertyKeys = getPropertyKeys(graphStep);
                 final ElasticGraphStep<?> elasticGraphStep = new ElasticGraphStep<>(graphStep, predicates, elasticGraph.getQueryHandler());
                 TraversalHelper.replaceStep(graphStep, (Step) elasticGraphStep, traversal);
             }
@@ -34,30 +75,54 @@ public class ElasticOptimizationStrategy extends AbstractTraversalStrategy<Trave
 
         TraversalHelper.getStepsOfClass(VertexStep.class, traversal).forEach(vertexStep -> {
             boolean returnVertex = vertexStep.getReturnClass().equals(Vertex.class);
-            Predicates predicates = returnVertex ? new Predicates() : getPredicates(vertexStep, traversal);
+            // has steps after a vertex-returning step filter the adjacent vertices rather than the edges
+            Predicates predicates = getPredicates(vertexStep, traversal, true, false);
+            Step nextStep = vertexStep.getNextStep();
+            if(countable(elasticGraph, traversal, vertexStep, predicates) && !vertexStep.getDirection().equals(Direction.BOTH) &&
+                    (!returnVertex || predicates.hasContainers.isEmpty())) {
+                ElasticVertexCountStep countStep = new ElasticVertexCountStep(traversal, vertexStep.getDirection(), vertexStep.getEdgeLabels(), predicates, (AggregationHandler) elasticGraph.getQueryHandler(), vertexBatchSize);
+                nextStep.getLabels().forEach(label -> countStep.addLabel(label.toString()));
+                traversal.removeStep(nextStep);
+                TraversalHelper.replaceStep(vertexStep, countStep, traversal);
+                return;
+            }
 
-            ElasticVertexStep elasticVertexStep = new ElasticVertexStep(vertexStep, predicates);
+            if(vertexStep.getLabels().isEmpty() && predicates.labels.isEmpty())
+                predicates.propertyKeys = getPropertyKeys(vertexStep);
+            ElasticVertexStep elasticVertexStep = new ElasticVertexStep(vertexStep, predicates, vertexBatchSize);
             TraversalHelper.replaceStep(vertexStep, elasticVertexStep, traversal);
         });
     }
 
-    private Predicates getPredicates(Step step, Traversal.Admin traversal){
+    private Predicates getPredicates(Step step, Traversal.Admin traversal, boolean foldHas, boolean globalRange){
         Predicates predicates = new Predicates();
         Step<?, ?> nextStep = step.getNextStep();
 
         while(true) {
-            if(nextStep instanceof HasContainerHolder) {
+            if(foldHas && nextStep instanceof HasContainerHolder) {
                 HasContainerHolder hasContainerHolder = (HasContainerHolder) nextStep;
                 hasContainerHolder.getHasContainers().forEach(predicates.hasContainers::add);
                 collectLabels(predicates, nextStep);
                 traversal.removeStep(nextStep);
             }
+            else if(globalRange && nextStep instanceof OrderGlobalStep && predicates.orders.isEmpty() &&
+                    collectOrders(predicates, (OrderGlobalStep) nextStep)) {
+                collectLabels(predicates, nextStep);
+                traversal.removeStep(nextStep);
+            }
             else if(nextStep instanceof RangeGlobalStep) {
-                /*RangeGlobalStep rangeGlobalStep = (RangeGlobalStep) nextStep;
-                predicates.limitLow = rangeGlobalStep.getLowRange();
-                predicates.limitHigh = rangeGlobalStep.getHighRange();
-		        collectLabels(predicates, nextStep);
-                traversal.removeStep(rangeGlobalStep);*/
+                RangeGlobalStep rangeGlobalStep = (RangeGlobalStep) nextStep;
+                long high = rangeGlobalStep.getHighRange() == -1 ? Long.MAX_VALUE : rangeGlobalStep.getHighRange();
+                if(globalRange) {
+                    predicates.limitLow = rangeGlobalStep.getLowRange();
+                    predicates.limitHigh = high;
+                    collectLabels(predicates, nextStep);
+                    traversal.removeStep(rangeGlobalStep);
+                }
+                // the range applies to all traversers together, so each vertex only needs its first 'high' results
+                // and the range step stays in place to cut the merged stream
+                else predicates.limitHigh = high;
+                return predicates;
             }
             else return predicates;
 
@@ -65,6 +130,187 @@ public class ElasticOptimizationStrategy extends AbstractTraversalStrategy<Trave
         }
     }
 
+    private Supplier getAggregation(ElasticGraph graph, Traversal.Admin traversal, GraphStep graphStep, Predicates predicates) {
+        if(traversal.getStartStep() != graphStep || !aggregatable(graph, traversal, graphStep, predicates)) return null;
+        AggregationHandler aggregationHandler = (AggregationHandler) graph.getQueryHandler();
+        Class elementClass = graphStep.getReturnClass();
+        Step nextStep = graphStep.getNextStep();
+
+        if(nextStep instanceof CountGlobalStep)
+            return () -> aggregationHandler.count(elementClass, predicates);
+        // the remaining aggregations run over the whole filtered set, they can't honour a folded range
+        if(predicates.limitLow > 0 || predicates.limitHigh < Long.MAX_VALUE) return null;
+
+        if(nextStep instanceof GroupCountStep) {
+            String key = getPropertyKey(((GroupCountStep) nextStep).getLocalChildren(), 0);
+            if(key != null) return () -> aggregationHandler.groupCount(elementClass, predicates, key);
+        }
+        else if(nextStep instanceof GroupStep) {
+            // group().by(key).by().by(count(local)) is the groupCount of that key
+            List<Traversal.Admin> children = ((GroupStep) nextStep).getLocalChildren();
+            String key = getPropertyKey(children, 0);
+            if(key != null && children.size() == 3 && children.get(1) instanceof IdentityTraversal &&
+                    children.get(2).getSteps().size() == 1 && children.get(2).getStartStep() instanceof CountLocalStep)
+                return () -> aggregationHandler.groupCount(elementClass, predicates, key);
+        }
+        else if(nextStep instanceof PropertiesStep && nextStep.getLabels().isEmpty()) {
+            PropertiesStep propertiesStep = (PropertiesStep) nextStep;
+            if(!propertiesStep.getReturnType().equals(PropertyType.VALUE) || propertiesStep.getPropertyKeys().length != 1) return null;
+            String key = propertiesStep.getPropertyKeys()[0];
+            Step reducingStep = propertiesStep.getNextStep();
+            if(reducingStep instanceof MinGlobalStep) return () -> aggregationHandler.min(elementClass, predicates, key);
+            if(reducingStep instanceof MaxGlobalStep) return () -> aggregationHandler.max(elementClass, predicates, key);
+            if(reducingStep instanceof SumGlobalStep) return () -> aggregationHandler.sum(elementClass, predicates, key);
+            if(reducingStep instanceof MeanGlobalStep) return () -> aggregationHandler.mean(elementClass, predicates, key);
+        }
+        return null;
+    }
+
+    private List<VertexStep> getRepeatedVertexSteps(Traversal.Admin traversal, RepeatStep<?> repeatStep) {
+        // only repeat(out()...).times(n) is run level by level: the merged frontier keeps no paths, sacks or emits
+        Set<TraverserRequirement> requirements = traversal.getTraverserRequirements();
+        if(!(traversal.getParent() instanceof EmptyStep) || requirements.contains(TraverserRequirement.PATH) ||
+                requirements.contains(TraverserRequirement.SACK)) return null;
+        List<Traversal.Admin<?, ?>> localChildren = (List) repeatStep.getLocalChildren();
+        if(repeatStep.untilFirst || localChildren.size() != 1 || !(localChildren.get(0) instanceof LoopTraversal)) return null;
+
+        List<VertexStep> vertexSteps = new ArrayList<>();
+        for(Step step : repeatStep.getGlobalChildren().get(0).getSteps()) {
+            if(step instanceof RepeatStep.RepeatEndStep) continue;
+            if(!(step instanceof VertexStep) || !step.getLabels().isEmpty() ||
+                    !((VertexStep) step).getReturnClass().equals(Vertex.class)) return null;
+            vertexSteps.add((VertexStep) step);
+        }
+        return vertexSteps.isEmpty() ? null : vertexSteps;
+    }
+
+    private ElasticShortestPathStep getShortestPathStep(ElasticGraph graph, Traversal.Admin traversal, RepeatStep<?> repeatStep, int batchSize) {
+        // repeat(out().simplePath()).until(hasId(...)).path().limit(1) right after the start asks for any one simple
+        // path, so a shortest one is a valid answer
+        if(!(traversal.getParent() instanceof EmptyStep) || repeatStep.getPreviousStep() != traversal.getStartStep() ||
+                !repeatStep.getLabels().isEmpty() || repeatStep.untilFirst || traversal.getTraverserRequirements().contains(TraverserRequirement.SACK))
+            return null;
+        Step pathStep = repeatStep.getNextStep();
+        if(!(pathStep instanceof PathStep) || !((PathStep) pathStep).getLocalChildren().isEmpty() ||
+                !(pathStep.getNextStep() instanceof RangeGlobalStep)) return null;
+        RangeGlobalStep rangeStep = (RangeGlobalStep) pathStep.getNextStep();
+        if(rangeStep.getLowRange() != 0 || rangeStep.getHighRange() != 1) return null;
+
+        List<Step> steps = repeatStep.getGlobalChildren().get(0).getSteps();
+        if(steps.size() != 3 || !(steps.get(0) instanceof VertexStep) || !(steps.get(1) instanceof SimplePathStep) ||
+                !(steps.get(2) instanceof RepeatStep.RepeatEndStep) ||
+                !steps.get(0).getLabels().isEmpty() || !steps.get(1).getLabels().isEmpty()) return null;
+        VertexStep vertexStep = (VertexStep) steps.get(0);
+        if(!vertexStep.getReturnClass().equals(Vertex.class)) return null;
+
+        List<Traversal.Admin<?, ?>> localChildren = (List) repeatStep.getLocalChildren();
+        if(localChildren.size() != 1 || localChildren.get(0).getSteps().size() != 1 ||
+                !(localChildren.get(0).getStartStep() instanceof HasStep)) return null;
+        List<Object> targetIds = new ArrayList<>();
+        for(HasContainer hasContainer : ((HasStep<?>) localChildren.get(0).getStartStep()).getHasContainers()) {
+            if(!hasContainer.getKey().equals(T.id.getAccessor()) || !targetIds.isEmpty()) return null;
+            Object value = hasContainer.getValue();
+            if(hasContainer.getBiPredicate().equals(Compare.eq)) targetIds.add(value);
+            else if(hasContainer.getBiPredicate().equals(Contains.within) && value instanceof Collection) targetIds.addAll((Collection) value);
+            else return null;
+        }
+        if(targetIds.isEmpty()) return null;
+
+        int maxDepth = graph.configuration().getInt("elasticsearch.shortestPath.maxDepth", 20);
+        int maxFrontierSize = graph.configuration().getInt("elasticsearch.shortestPath.maxFrontierSize", 1000000);
+        return new ElasticShortestPathStep(traversal, graph, vertexStep.getDirection(), vertexStep.getEdgeLabels(),
+                targetIds.toArray(), maxDepth, maxFrontierSize, batchSize);
+    }
+
+    // the bound of a times() loop, or -1 when it can't be read and the repeat is left to TinkerPop
+    private long getLoops(RepeatStep<?> repeatStep) {
+        if(MAX_LOOPS == null) return -1;
+        try {
+            return MAX_LOOPS.getLong(repeatStep.getLocalChildren().get(0));
+        }
+        catch (IllegalAccessException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static Field getMaxLoopsField() {
+        try {
+            Field field = LoopTraversal.class.getDeclaredField("maxLoops");
+            field.setAccessible(true);
+            return field;
+        }
+        catch (NoSuchFieldException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private String getPropertyKey(List<Traversal.Admin> children, int index) {
+        if(children.size() <= index || !(children.get(index) instanceof ElementValueTraversal)) return null;
+        return ((ElementValueTraversal) children.get(index)).getPropertyKey();
+    }
+
+    private boolean countable(ElasticGraph graph, Traversal.Admin traversal, Step step, Predicates predicates) {
+        return step.getNextStep() instanceof CountGlobalStep && aggregatable(graph, traversal, step, predicates);
+    }
+
+    private boolean aggregatable(ElasticGraph graph, Traversal.Admin traversal, Step step, Predicates predicates) {
+        // the aggregated elements are never materialized, so nothing may refer to them by label
+        return graph.getQueryHandler() instanceof AggregationHandler &&
+                step.getLabels().isEmpty() && predicates.labels.isEmpty() &&
+                !traversal.getTraverserRequirements().contains(TraverserRequirement.PATH);
+    }
+
+    private boolean collectOrders(Predicates predicates, OrderGlobalStep orderStep) {
+        List<Pair<String, Order>> orders = new ArrayList<>();
+        for(Object comparator : orderStep.getComparators()) {
+            if(!(comparator instanceof ElementValueComparator)) return false;
+            ElementValueComparator valueComparator = (ElementValueComparator) comparator;
+            if(!valueComparator.getValueComparator().equals(Order.incr) && !valueComparator.getValueComparator().equals(Order.decr)) return false;
+            orders.add(new Pair<>(valueComparator.getPropertyKey(), (Order) valueComparator.getValueComparator()));
+        }
+        predicates.orders.addAll(orders);
+        return !orders.isEmpty();
+    }
+
+    private Set<String> getPropertyKeys(Step<?, ?> step) {
+        Set<String> propertyKeys = new HashSet<>();
+        Step<?, ?> nextStep = step.getNextStep();
+
+        while(true) {
+            // a labeled element can be picked up again by select() or path(), and a returned one can be read freely
+            if(nextStep instanceof EmptyStep || !nextStep.getLabels().isEmpty()) return null;
+
+            if(nextStep instanceof HasContainerHolder) {
+                ((HasContainerHolder) nextStep).getHasContainers().forEach(has -> {
+                    if(!has.getKey().equals(T.id.getAccessor()) && !has.getKey().equals(T.label.getAccessor()))
+                        propertyKeys.add(has.getKey());
+                });
+            }
+            else if(nextStep instanceof OrderGlobalStep) {
+                for(Object comparator : ((OrderGlobalStep) nextStep).getComparators()) {
+                    if(!(comparator instanceof ElementValueComparator)) return null;
+                    propertyKeys.add(((ElementValueComparator) comparator).getPropertyKey());
+                }
+            }
+            else if(nextStep instanceof DedupGlobalStep) {
+                if(!((DedupGlobalStep) nextStep).getLocalChildren().isEmpty()) return null;
+            }
+            else if(nextStep instanceof PropertiesStep) {
+                String[] keys = ((PropertiesStep) nextStep).getPropertyKeys();
+                if(keys.length == 0) return null;
+                Collections.addAll(propertyKeys, keys);
+                return propertyKeys;
+            }
+            else if(nextStep instanceof IdStep || nextStep instanceof LabelStep || nextStep instanceof CountGlobalStep ||
+                    nextStep instanceof VertexStep || nextStep instanceof EdgeVertexStep || nextStep instanceof EdgeOtherVertexStep ||
+                    nextStep instanceof ElasticRepeatStep)
+                return propertyKeys;
+            else if(!(nextStep instanceof RangeGlobalStep)) return null;
+
+            nextStep = nextStep.getNextStep();
+        }
+    }
+
     private void collectLabels(Predicates predicates, Step<?, ?> step) {
         step.getLabels().forEach(predicates.labels::add);
     }
@@ -0,0 +1,115 @@
+package org.elasticgremlin.process.optimize;
+
+import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.step.map.VertexStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.AbstractStep;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.TraverserRequirement;
+import org.apache.tinkerpop.gremlin.process.traversal.util.FastNoSuchElementException;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.Predicates;
+import org.elasticgremlin.structure.BaseVertex;
+
+import java.util.*;
+
+public class ElasticRepeatStep extends AbstractStep<Vertex, Vertex> {
+
+    private final List<VertexStep> vertexSteps;
+    private final long times;
+    private final Set<String> propertyKeys;
+    private final int batchSize;
+    private Iterator<Traverser<Vertex>> results = null;
+
+    public ElasticRepeatStep(Traversal.Admin traversal, List<VertexStep> vertexSteps, long times, Set<String> propertyKeys, int batchSize) {
+        super(traversal);
+        this.vertexSteps = vertexSteps;
+        this.times = times;
+        this.propertyKeys = propertyKeys;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected Traverser<Vertex> processNextStart() {
+        if (results == null) results = expand();
+        if (!results.hasNext()) throw FastNoSuchElementException.instance();
+        return results.next();
+    }
+
+    private Iterator<Traverser<Vertex>> expand() {
+        Frontier frontier = new Frontier();
+        while (this.starts.hasNext()) {
+            Traverser.Admin<Vertex> traverser = this.starts.next();
+            frontier.add(traverser.get(), traverser.bulk());
+        }
+
+        // every level is expanded as a whole, vertices reached by several paths are merged into one traverser
+        for (long loop = 0; loop < times && !frontier.isEmpty(); loop++) {
+            for (int i = 0; i < vertexSteps.size(); i++) {
+                Predicates predicates = new Predicates();
+                boolean lastHop = loop == times - 1 && i == vertexSteps.size() - 1;
+                predicates.propertyKeys = lastHop ? propertyKeys : Collections.emptySet();
+                frontier = expand(frontier, vertexSteps.get(i), predicates);
+            }
+        }
+
+        List<Traverser<Vertex>> traversers = new ArrayList<>();
+        for (Map.Entry<Object, Vertex> entry : frontier.vertices.entrySet())
+            traversers.add(this.getTraversal().getTraverserGenerator().generate(entry.getValue(), (Step) this, frontier.bulks.get(entry.getKey())));
+        return traversers.iterator();
+    }
+
+    private Frontier expand(Frontier frontier, VertexStep vertexStep, Predicates predicates) {
+        Direction direction = vertexStep.getDirection();
+        String[] edgeLabels = vertexStep.getEdgeLabels();
+        Frontier next = new Frontier();
+        List<BaseVertex> batch = new ArrayList<>();
+        for (Vertex vertex : frontier.vertices.values()) {
+            if (vertex instanceof BaseVertex) {
+                batch.add((BaseVertex) vertex);
+                if (batch.size() >= batchSize) {
+                    expandBatch(batch, direction, edgeLabels, predicates, frontier, next);
+                    batch.clear();
+                }
+            }
+            else {
+                long bulk = frontier.bulks.get(vertex.id());
+                vertex.vertices(direction, edgeLabels).forEachRemaining(adjacent -> next.add(adjacent, bulk));
+            }
+        }
+        if (!batch.isEmpty()) expandBatch(batch, direction, edgeLabels, predicates, frontier, next);
+        return next;
+    }
+
+    private void expandBatch(List<BaseVertex> batch, Direction direction, String[] edgeLabels, Predicates predicates, Frontier frontier, Frontier next) {
+        BaseVertex.loadVertices(batch, direction, edgeLabels, predicates);
+        batch.forEach(vertex -> {
+            long bulk = frontier.bulks.get(vertex.id());
+            vertex.vertices(direction, edgeLabels, predicates).forEachRemaining(adjacent -> next.add(adjacent, bulk));
+        });
+    }
+
+    @Override
+    public Set<TraverserRequirement> getRequirements() {
+        return Collections.singleton(TraverserRequirement.BULK);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        results = null;
+    }
+
+    private static class Frontier {
+        private final Map<Object, Vertex> vertices = new LinkedHashMap<>();
+        private final Map<Object, Long> bulks = new HashMap<>();
+
+        public void add(Vertex vertex, long bulk) {
+            Long currentBulk = bulks.get(vertex.id());
+            if (currentBulk == null) vertices.put(vertex.id(), vertex);
+            bulks.put(vertex.id(), currentBulk == null ? bulk : currentBulk + bulk);
+        }
+
+        public boolean isEmpty() {
+            return vertices.isEmpty();
+        }
+    }
+}
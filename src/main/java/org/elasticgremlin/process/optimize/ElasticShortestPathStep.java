@@ -0,0 +1,160 @@
+package org.elasticgremlin.process.optimize;
+
+import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.AbstractStep;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.TraverserRequirement;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.Predicates;
+import org.elasticgremlin.structure.BaseVertex;
+import org.elasticgremlin.structure.ElasticGraph;
+
+import java.util.*;
+
+/**
+ * Answers repeat(out().simplePath()).until(hasId(...)).path().limit(1) with a bidirectional breadth-first search,
+ * emitting one shortest path per start vertex. A search whose frontier outgrows maxFrontierSize fails rather than
+ * report a missing path.
+ */
+public class ElasticShortestPathStep extends AbstractStep<Vertex, Vertex> {
+
+    private final ElasticGraph graph;
+    private final Direction direction;
+    private final String[] edgeLabels;
+    private final Object[] targetIds;
+    private final int maxDepth;
+    private final int maxFrontierSize;
+    private final int batchSize;
+    private final Predicates predicates = new Predicates();
+
+    public ElasticShortestPathStep(Traversal.Admin traversal, ElasticGraph graph, Direction direction, String[] edgeLabels,
+                                   Object[] targetIds, int maxDepth, int maxFrontierSize, int batchSize) {
+        super(traversal);
+        this.graph = graph;
+        this.direction = direction;
+        this.edgeLabels = edgeLabels;
+        this.targetIds = targetIds;
+        this.maxDepth = maxDepth;
+        this.maxFrontierSize = maxFrontierSize;
+        this.batchSize = batchSize;
+        // the visited vertices are only compared by id, the ones on the returned path load their properties lazily
+        this.predicates.propertyKeys = Collections.emptySet();
+    }
+
+    @Override
+    protected Traverser<Vertex> processNextStart() {
+        while (true) {
+            Traverser.Admin<Vertex> traverser = this.starts.next();
+            List<Vertex> path = shortestPath(traverser.get());
+            if (path == null) continue;
+            for (Vertex vertex : path) traverser = traverser.split(vertex, this);
+            return traverser;
+        }
+    }
+
+    private List<Vertex> shortestPath(Vertex source) {
+        Search forward = new Search(direction);
+        forward.add(source, null, 0);
+        Search backward = new Search(direction.opposite());
+        graph.vertices(targetIds).forEachRemaining(target -> {
+            // a simple path never returns to its source
+            if (!target.id().equals(source.id())) backward.add(target, null, 0);
+        });
+
+        while (!forward.frontier.isEmpty() && !backward.frontier.isEmpty() && forward.depth + backward.depth < maxDepth) {
+            Search expanded = forward.frontier.size() <= backward.frontier.size() ? forward : backward;
+            Search other = expanded == forward ? backward : forward;
+            Object meeting = expanded.expand(other);
+            if (meeting != null) return forward.path(meeting, backward);
+        }
+        return null;
+    }
+
+    private void expand(List<Vertex> frontier, Direction direction, Map<Vertex, List<Vertex>> adjacency) {
+        List<BaseVertex> batch = new ArrayList<>();
+        for (Vertex vertex : frontier) {
+            if (vertex instanceof BaseVertex) batch.add((BaseVertex) vertex);
+            else adjacency.put(vertex, toList(vertex.vertices(direction, edgeLabels)));
+            if (batch.size() >= batchSize) {
+                expandBatch(batch, direction, adjacency);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) expandBatch(batch, direction, adjacency);
+    }
+
+    private void expandBatch(List<BaseVertex> batch, Direction direction, Map<Vertex, List<Vertex>> adjacency) {
+        BaseVertex.loadVertices(batch, direction, edgeLabels, predicates);
+        batch.forEach(vertex -> adjacency.put(vertex, toList(vertex.vertices(direction, edgeLabels, predicates))));
+    }
+
+    private static List<Vertex> toList(Iterator<Vertex> vertices) {
+        List<Vertex> list = new ArrayList<>();
+        vertices.forEachRemaining(list::add);
+        return list;
+    }
+
+    @Override
+    public Set<TraverserRequirement> getRequirements() {
+        return Collections.singleton(TraverserRequirement.PATH);
+    }
+
+    private class Search {
+        private final Direction direction;
+        private final Map<Object, Vertex> vertices = new HashMap<>();
+        private final Map<Object, Object> parents = new HashMap<>();
+        private final Map<Object, Integer> depths = new HashMap<>();
+        private List<Vertex> frontier = new ArrayList<>();
+        private int depth = 0;
+
+        private Search(Direction direction) {
+            this.direction = direction;
+        }
+
+        private void add(Vertex vertex, Object parentId, int depth) {
+            vertices.put(vertex.id(), vertex);
+            parents.put(vertex.id(), parentId);
+            depths.put(vertex.id(), depth);
+            frontier.add(vertex);
+        }
+
+        /**
+         * Expands the whole frontier by one level and returns the id where it met the other search on the shortest
+         * combined path, or null.
+         */
+        private Object expand(Search other) {
+            Map<Vertex, List<Vertex>> adjacency = new LinkedHashMap<>();
+            ElasticShortestPathStep.this.expand(frontier, direction, adjacency);
+            frontier = new ArrayList<>();
+            depth++;
+
+            Object meeting = null;
+            int meetingDepth = Integer.MAX_VALUE;
+            for (Map.Entry<Vertex, List<Vertex>> entry : adjacency.entrySet()) {
+                for (Vertex adjacent : entry.getValue()) {
+                    if (vertices.containsKey(adjacent.id())) continue;
+                    add(adjacent, entry.getKey().id(), depth);
+                    Integer otherDepth = other.depths.get(adjacent.id());
+                    if (otherDepth != null && otherDepth < meetingDepth) {
+                        meeting = adjacent.id();
+                        meetingDepth = otherDepth;
+                    }
+                }
+            }
+            // dropping the frontier would silently report that there is no path
+            if (meeting == null && frontier.size() > maxFrontierSize)
+                throw new IllegalStateException("The shortest path search frontier grew to " + frontier.size() +
+                        " vertices, more than elasticsearch.shortestPath.maxFrontierSize (" + maxFrontierSize + ")");
+            return meeting;
+        }
+
+        /**
+         * The vertices after the source up to the meeting id, followed by the backward search's chain to its target.
+         */
+        private List<Vertex> path(Object meeting, Search backward) {
+            LinkedList<Vertex> path = new LinkedList<>();
+            for (Object id = meeting; parents.get(id) != null; id = parents.get(id)) path.addFirst(vertices.get(id));
+            for (Object id = backward.parents.get(meeting); id != null; id = backward.parents.get(id)) path.add(backward.vertices.get(id));
+            return path;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.elasticgremlin.process.optimize;
+
+import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.*;
+import org.apache.tinkerpop.gremlin.process.traversal.traverser.TraverserRequirement;
+import org.apache.tinkerpop.gremlin.process.traversal.util.FastNoSuchElementException;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.*;
+import org.elasticgremlin.structure.BaseVertex;
+
+import java.util.*;
+
+public class ElasticVertexCountStep extends AbstractStep<Vertex, Long> {
+    private final Direction direction;
+    private final String[] edgeLabels;
+    private final Predicates predicates;
+    private final AggregationHandler aggregationHandler;
+    private final int batchSize;
+    private boolean done = false;
+
+    public ElasticVertexCountStep(Traversal.Admin traversal, Direction direction, String[] edgeLabels, Predicates predicates, AggregationHandler aggregationHandler, int batchSize) {
+        super(traversal);
+        this.direction = direction;
+        this.edgeLabels = edgeLabels;
+        this.predicates = predicates;
+        this.aggregationHandler = aggregationHandler;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected Traverser<Long> processNextStart() {
+        if (done) throw FastNoSuchElementException.instance();
+        done = true;
+
+        long count = 0;
+        Map<Object, Long> bulks = new HashMap<>();
+        List<BaseVertex> batch = new ArrayList<>();
+        while (this.starts.hasNext()) {
+            Traverser.Admin<Vertex> traverser = this.starts.next();
+            Vertex vertex = traverser.get();
+            if (vertex instanceof BaseVertex) {
+                Long bulk = bulks.get(vertex.id());
+                if (bulk == null) batch.add((BaseVertex) vertex);
+                bulks.put(vertex.id(), bulk == null ? traverser.bulk() : bulk + traverser.bulk());
+                if (batch.size() >= batchSize) {
+                    count += countBatch(batch, bulks);
+                    batch.clear();
+                    bulks.clear();
+                }
+            }
+            else count += countLocal(vertex) * traverser.bulk();
+        }
+        if (batch.size() > 0) count += countBatch(batch, bulks);
+
+        return this.getTraversal().getTraverserGenerator().generate(count, (Step) this, 1l);
+    }
+
+    private long countBatch(List<BaseVertex> batch, Map<Object, Long> bulks) {
+        long count = 0;
+        Map<Object, Long> counts = aggregationHandler.count(batch.iterator(), direction, edgeLabels, predicates);
+        for (Map.Entry<Object, Long> entry : counts.entrySet()) {
+            Long bulk = bulks.get(entry.getKey());
+            if (bulk != null) count += entry.getValue() * bulk;
+        }
+        return count;
+    }
+
+    private long countLocal(Vertex vertex) {
+        long count = 0;
+        Iterator<Edge> edges = vertex.edges(direction, edgeLabels);
+        while (edges.hasNext() && count < predicates.limitHigh)
+            if (HasContainer.testAll(edges.next(), predicates.hasContainers)) count++;
+        return count;
+    }
+
+    @Override
+    public Set<TraverserRequirement> getRequirements() {
+        return Collections.singleton(TraverserRequirement.BULK);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        done = false;
+    }
+}
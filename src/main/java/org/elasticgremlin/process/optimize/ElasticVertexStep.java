@@ -2,27 +2,61 @@ package org.elasticgremlin.process.optimize;
 
 import org.apache.tinkerpop.gremlin.process.traversal.Traverser;
 import org.apache.tinkerpop.gremlin.process.traversal.step.map.VertexStep;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.apache.tinkerpop.gremlin.process.traversal.util.FastNoSuchElementException;
 import org.apache.tinkerpop.gremlin.structure.*;
+import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
 import org.elasticgremlin.queryhandler.Predicates;
 import org.elasticgremlin.structure.BaseVertex;
 
-import java.util.Iterator;
+import java.util.*;
 
 public class ElasticVertexStep<E extends Element> extends VertexStep<E> {
     private final Predicates predicates;
+    private final int batchSize;
+    private Iterator<Traverser<E>> results = Collections.emptyIterator();
 
-    public ElasticVertexStep(VertexStep originalStep, Predicates predicates) {
+    public ElasticVertexStep(VertexStep originalStep, Predicates predicates, int batchSize) {
         super(originalStep.getTraversal(), originalStep.getReturnClass(), originalStep.getDirection(),
                 originalStep.getEdgeLabels());
         originalStep.getLabels().forEach(label -> this.addLabel(label.toString()));
         predicates.labels.forEach(this::addLabel);
         this.predicates = predicates;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected Traverser<E> processNextStart() {
+        while (!results.hasNext()) results = processBatch();
+        return results.next();
+    }
+
+    private Iterator<Traverser<E>> processBatch() {
+        List<Traverser.Admin<Vertex>> traversers = new ArrayList<>();
+        while (traversers.size() < batchSize && this.starts.hasNext()) traversers.add(this.starts.next());
+        if (traversers.isEmpty()) throw FastNoSuchElementException.instance();
+
+        // fetch the adjacency of the whole batch with one query, flatMap is then answered by the vertices' caches
+        List<BaseVertex> vertices = new ArrayList<>();
+        traversers.forEach(traverser -> {
+            if (traverser.get() instanceof BaseVertex) vertices.add((BaseVertex) traverser.get());
+        });
+        if (!vertices.isEmpty()) {
+            if (Vertex.class.isAssignableFrom(this.getReturnClass()))
+                BaseVertex.loadVertices(vertices, this.getDirection(), this.getEdgeLabels(), predicates);
+            else BaseVertex.loadEdges(vertices, this.getDirection(), this.getEdgeLabels(), predicates);
+        }
+
+        List<Traverser<E>> batchResults = new ArrayList<>();
+        traversers.forEach(traverser -> flatMap(traverser).forEachRemaining(element -> batchResults.add(traverser.split(element, this))));
+        return batchResults.iterator();
     }
 
     @Override
     protected Iterator<E> flatMap(Traverser.Admin<Vertex> traverser) {
         Vertex vertex = traverser.get();
-        if (!(vertex instanceof BaseVertex)) return super.flatMap(traverser);
+        if (!(vertex instanceof BaseVertex))
+            return IteratorUtils.filter(super.flatMap(traverser), element -> HasContainer.testAll(element, predicates.hasContainers));
         BaseVertex baseVertex = (BaseVertex) vertex;
 
         if (Vertex.class.isAssignableFrom(this.getReturnClass()))
@@ -30,4 +64,10 @@ public class ElasticVertexStep<E extends Element> extends VertexStep<E> {
 
         return (Iterator<E>) baseVertex.edges(this.getDirection(), this.getEdgeLabels(), predicates);
     }
+
+    @Override
+    public void reset() {
+        super.reset();
+        results = Collections.emptyIterator();
+    }
 }
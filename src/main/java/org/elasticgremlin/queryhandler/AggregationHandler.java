@@ -0,0 +1,16 @@
+package org.elasticgremlin.queryhandler;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.BaseVertex;
+
+import java.util.*;
+
+public interface AggregationHandler {
+    public long count(Class<? extends Element> elementClass, Predicates predicates);
+    public Map<Object, Long> count(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates);
+    public Map<Object, Long> groupCount(Class<? extends Element> elementClass, Predicates predicates, String key);
+    public Number min(Class<? extends Element> elementClass, Predicates predicates, String key);
+    public Number max(Class<? extends Element> elementClass, Predicates predicates, String key);
+    public Double sum(Class<? extends Element> elementClass, Predicates predicates, String key);
+    public Double mean(Class<? extends Element> elementClass, Predicates predicates, String key);
+}
@@ -0,0 +1,14 @@
+package org.elasticgremlin.queryhandler;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.BaseVertex;
+
+import java.util.*;
+
+/**
+ * Loads the edges of several vertices at once with the predicates' limit and order applied to each vertex on its own,
+ * where {@link EdgeHandler#edges(Iterator, Direction, String[], Predicates)} applies them to all the edges together.
+ */
+public interface LimitedEdgeHandler {
+    public Map<Object, Set<Edge>> limitedEdges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates);
+}
@@ -0,0 +1,10 @@
+package org.elasticgremlin.queryhandler;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+
+import java.util.Iterator;
+
+public interface PartitionHandler {
+    public int partitions();
+    public Iterator<Vertex> vertices(int partition);
+}
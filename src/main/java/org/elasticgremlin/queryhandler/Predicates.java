@@ -1,14 +1,19 @@
 package org.elasticgremlin.queryhandler;
 
+import org.apache.tinkerpop.gremlin.process.traversal.Order;
 import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.javatuples.Pair;
 
-import java.util.ArrayList;
+import java.util.*;
 
 public class Predicates {
     public ArrayList<HasContainer> hasContainers = new ArrayList<>();
     public long limitLow = 0;
     public long limitHigh = Long.MAX_VALUE;
     public ArrayList<String> labels = new ArrayList<>();
+    public ArrayList<Pair<String, Order>> orders = new ArrayList<>();
+    // the property keys read from the returned elements, null when any of them may be read
+    public Set<String> propertyKeys = null;
 
     @Override
     public boolean equals(Object o) {
@@ -21,6 +26,8 @@ public class Predicates {
         if (limitHigh != that.limitHigh) return false;
         if (hasContainers != null ? !hasContainers.equals(that.hasContainers) : that.hasContainers != null)
             return false;
+        if (orders != null ? !orders.equals(that.orders) : that.orders != null) return false;
+        if (propertyKeys != null ? !propertyKeys.equals(that.propertyKeys) : that.propertyKeys != null) return false;
         return !(labels != null ? !labels.equals(that.labels) : that.labels != null);
 
     }
@@ -31,6 +38,8 @@ public class Predicates {
         result = 31 * result + (int) (limitLow ^ (limitLow >>> 32));
         result = 31 * result + (int) (limitHigh ^ (limitHigh >>> 32));
         result = 31 * result + (labels != null ? labels.hashCode() : 0);
+        result = 31 * result + (orders != null ? orders.hashCode() : 0);
+        result = 31 * result + (propertyKeys != null ? propertyKeys.hashCode() : 0);
         return result;
     }
 }
@@ -7,61 +7,90 @@ import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 import org.elasticgremlin.queryhandler.elasticsearch.vertexdoc.DocVertexHandler;
 import org.elasticgremlin.structure.*;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.elasticsearch.search.sort.SortOrder;
 
 import java.io.IOException;
 import java.util.*;
 
-public class SimpleQueryHandler implements QueryHandler {
+public class SimpleQueryHandler implements QueryHandler, AggregationHandler, PartitionHandler, LimitedEdgeHandler {
 
     private DocEdgeHandler docEdgeHandler;
     private DocVertexHandler elasticDocVertexHandler;
     private Client client;
     private ElasticMutations elasticMutations;
     private TimingAccessor timing;
+    private ScrollSettings scroll;
+    private String indexName;
+    private String edgeIndexName;
+    private boolean refresh;
 
     @Override
     public void init(ElasticGraph graph, Configuration configuration) throws IOException {
-        String indexName = configuration.getString("elasticsearch.index.name", "graph");
-        boolean refresh = configuration.getBoolean("elasticsearch.refresh", false);
-        int scrollSize = configuration.getInt("elasticsearch.scrollSize", 500);
-        boolean bulk = configuration.getBoolean("elasticsearch.bulk", false);
+        indexName = configuration.getString("elasticsearch.index.name", "graph");
+        refresh = configuration.getBoolean("elasticsearch.refresh", false);
 
         client = ElasticClientFactory.create(configuration);
         ElasticHelper.createIndex(indexName, client);
 
         timing = new TimingAccessor();
-        elasticMutations = new ElasticMutations(bulk, client, timing);
-        docEdgeHandler = new DocEdgeHandler(graph, client, elasticMutations, indexName, scrollSize, refresh, timing);
-        elasticDocVertexHandler = new DocVertexHandler(graph, client, elasticMutations, indexName, scrollSize, refresh, timing);
+        scroll = new ScrollSettings(configuration, 500);
+        elasticMutations = new ElasticMutations(configuration, client, timing);
+        int inlineAdjacencyMaxDegree = configuration.getInt("elasticsearch.inlineAdjacency", 0);
+        InlineAdjacency inlineAdjacency = inlineAdjacencyMaxDegree > 0 ?
+                new InlineAdjacency(inlineAdjacencyMaxDegree, client, elasticMutations, indexName) : null;
+        String inIndexName = null;
+        edgeIndexName = indexName;
+        if (configuration.getBoolean("elasticsearch.edgeIndices", false)) {
+            edgeIndexName = indexName + "_out";
+            inIndexName = indexName + "_in";
+            ElasticHelper.createIndex(edgeIndexName, client);
+            ElasticHelper.createIndex(inIndexName, client);
+        }
+        docEdgeHandler = new DocEdgeHandler(graph, client, elasticMutations, edgeIndexName, inIndexName, scroll, refresh, timing,
+                configuration.getBoolean("elasticsearch.edgeRouting", false), inlineAdjacency);
+        elasticDocVertexHandler = new DocVertexHandler(graph, client, elasticMutations, indexName, scroll, refresh, timing, inlineAdjacency);
     }
 
     @Override
     public void commit() { elasticMutations.commit(); }
     @Override
     public void close() {
+        elasticMutations.close();
         client.close();
     }
 
     @Override
     public Iterator<Edge> edges() {
+        elasticMutations.flush();
         return docEdgeHandler.edges();
     }
 
     @Override
     public Iterator<Edge> edges(Object[] edgeIds) {
+        elasticMutations.flush();
         return docEdgeHandler.edges(edgeIds);
     }
 
     @Override
     public Iterator<Edge> edges(Predicates predicates) {
+        elasticMutations.flush();
         return docEdgeHandler.edges(predicates);
     }
 
     @Override
     public Map<Object, Set<Edge>> edges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        elasticMutations.flush();
         return docEdgeHandler.edges(vertices, direction, edgeLabels, predicates);
     }
 
+    @Override
+    public Map<Object, Set<Edge>> limitedEdges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        elasticMutations.flush();
+        return docEdgeHandler.limitedEdges(vertices, direction, edgeLabels, predicates);
+    }
+
     @Override
     public Edge addEdge(Object edgeId, String label, Vertex outV, Vertex inV, Object[] properties) {
         return docEdgeHandler.addEdge(edgeId, label, outV, inV, properties);
@@ -69,6 +98,7 @@ public class SimpleQueryHandler implements QueryHandler {
 
     @Override
     public Iterator<Vertex> vertices() {
+        elasticMutations.flush();
         return elasticDocVertexHandler.vertices();
     }
 
@@ -79,6 +109,7 @@ public class SimpleQueryHandler implements QueryHandler {
 
     @Override
     public Iterator<Vertex> vertices(Predicates predicates) {
+        elasticMutations.flush();
         return elasticDocVertexHandler.vertices(predicates);
     }
 
@@ -92,8 +123,82 @@ public class SimpleQueryHandler implements QueryHandler {
         return elasticDocVertexHandler.addVertex(id, label, properties);
     }
 
+    @Override
+    public long count(Class<? extends Element> elementClass, Predicates predicates) {
+        elasticMutations.flush();
+        return ElasticHelper.count(createFilter(elementClass, predicates), predicates, client, refresh(index(elementClass)), timing, index(elementClass));
+    }
+
+    @Override
+    public Map<Object, Long> count(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        elasticMutations.flush();
+        return docEdgeHandler.count(vertices, direction, edgeLabels, predicates);
+    }
+
+    @Override
+    public Map<Object, Long> groupCount(Class<? extends Element> elementClass, Predicates predicates, String key) {
+        elasticMutations.flush();
+        return ElasticHelper.groupCount(createFilter(elementClass, predicates), key, client, refresh(index(elementClass)), timing, index(elementClass));
+    }
+
+    @Override
+    public Number min(Class<? extends Element> elementClass, Predicates predicates, String key) {
+        elasticMutations.flush();
+        return ElasticHelper.extremum(createFilter(elementClass, predicates), key, SortOrder.ASC, client, refresh(index(elementClass)), timing, index(elementClass));
+    }
+
+    @Override
+    public Number max(Class<? extends Element> elementClass, Predicates predicates, String key) {
+        elasticMutations.flush();
+        return ElasticHelper.extremum(createFilter(elementClass, predicates), key, SortOrder.DESC, client, refresh(index(elementClass)), timing, index(elementClass));
+    }
+
+    @Override
+    public Double sum(Class<? extends Element> elementClass, Predicates predicates, String key) {
+        elasticMutations.flush();
+        return ElasticHelper.stats(createFilter(elementClass, predicates), key, client, refresh(index(elementClass)), timing, index(elementClass)).getSum();
+    }
+
+    @Override
+    public Double mean(Class<? extends Element> elementClass, Predicates predicates, String key) {
+        elasticMutations.flush();
+        Stats stats = ElasticHelper.stats(createFilter(elementClass, predicates), key, client, refresh(index(elementClass)), timing, index(elementClass));
+        return stats.getCount() == 0 ? Double.NaN : stats.getAvg();
+    }
+
+    @Override
+    public int partitions() {
+        return ElasticHelper.shards(client, indexName);
+    }
+
+    @Override
+    public Iterator<Vertex> vertices(int partition) {
+        elasticMutations.flush();
+        return elasticDocVertexHandler.vertices(partition);
+    }
+
+    // the out edge index holds every edge once when the edges are partitioned by direction
+    private String index(Class<? extends Element> elementClass) {
+        return Vertex.class.isAssignableFrom(elementClass) ? indexName : edgeIndexName;
+    }
+
+    private FilterBuilder createFilter(Class<? extends Element> elementClass, Predicates predicates) {
+        return Vertex.class.isAssignableFrom(elementClass) ?
+                elasticDocVertexHandler.createFilter(predicates) :
+                docEdgeHandler.createFilter(predicates);
+    }
+
+    public TimingAccessor getTiming() {
+        return timing;
+    }
+
     @Override
     public void printStats() {
         timing.print();
+        System.out.println("open scroll contexts: " + scroll.getOpenContexts());
+    }
+
+    private boolean refresh(String index) {
+        return (refresh || elasticMutations.getOverlay() != null) && elasticMutations.needsRefresh(index);
     }
 }
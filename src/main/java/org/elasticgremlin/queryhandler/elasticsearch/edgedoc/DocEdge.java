@@ -1,11 +1,10 @@
 package org.elasticgremlin.queryhandler.elasticsearch.edgedoc;
 
 import org.apache.tinkerpop.gremlin.structure.*;
-import org.elasticgremlin.queryhandler.elasticsearch.helpers.ElasticMutations;
+import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 import org.elasticgremlin.structure.*;
 
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.*;
 
 public class DocEdge extends BaseEdge {
 
@@ -15,31 +14,58 @@ public class DocEdge extends BaseEdge {
     public static String InLabel = "inLabel";
     private final ElasticMutations elasticMutations;
     private final String indexName;
+    private final boolean routed;
+    private final String inIndexName;
+    private final InlineAdjacency inlineAdjacency;
 
 
     public DocEdge(final Object id, final String label, Object[] keyValues, Vertex outV, Vertex inV, final ElasticGraph graph, ElasticMutations elasticMutations, String indexName) {
+        this(id, label, keyValues, outV, inV, graph, elasticMutations, indexName, false);
+    }
+
+    public DocEdge(final Object id, final String label, Object[] keyValues, Vertex outV, Vertex inV, final ElasticGraph graph, ElasticMutations elasticMutations, String indexName, boolean routed) {
+        this(id, label, keyValues, outV, inV, graph, elasticMutations, indexName, routed, null, null);
+    }
+
+    /**
+     * @param inIndexName the index holding a second copy of the edge routed by its in vertex id, or null
+     * @param inlineAdjacency the arrays of the vertices' neighbours to remove the edge from, or null
+     */
+    public DocEdge(final Object id, final String label, Object[] keyValues, Vertex outV, Vertex inV, final ElasticGraph graph, ElasticMutations elasticMutations, String indexName, boolean routed, String inIndexName, InlineAdjacency inlineAdjacency) {
         super(id, label, keyValues, outV, inV, graph);
         this.elasticMutations = elasticMutations;
         this.indexName = indexName;
+        this.routed = routed;
+        this.inIndexName = inIndexName;
+        this.inlineAdjacency = inlineAdjacency;
+    }
+
+    // routed edges live on their out vertex's shard
+    public String routing() {
+        return routed ? outVertex.id().toString() : null;
+    }
+
+    public String inRouting() {
+        return inVertex.id().toString();
     }
 
     @Override
     protected void innerRemoveProperty(Property property) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        elasticMutations.removeProperty(this, property.key(), indexName, routing());
+        if (inIndexName != null) elasticMutations.removeProperty(this, property.key(), inIndexName, inRouting());
     }
 
     @Override
     protected boolean shouldAddProperty(String key) {
-        return super.shouldAddProperty(key) && !key.equals(OutId) && !key.equals(OutLabel) && !key.equals(InId) && !key.equals(InLabel);
+        return super.shouldAddProperty(key) && !key.equals(OutId) && !key.equals(OutLabel) && !key.equals(InId) && !key.equals(InLabel)
+                && !key.equals(CopiedProperties.OUT) && !key.equals(CopiedProperties.IN);
     }
 
     @Override
     protected void innerRemove() {
-        elasticMutations.deleteElement(this, indexName, null);
+        elasticMutations.deleteElement(this, indexName, routing());
+        if (inIndexName != null) elasticMutations.deleteElement(this, inIndexName, inRouting());
+        if (inlineAdjacency != null) inlineAdjacency.removeEdge(this);
     }
 
     @Override
@@ -49,15 +75,29 @@ public class DocEdge extends BaseEdge {
         map.put(DocEdge.OutId, outVertex.id());
         map.put(DocEdge.InLabel, inVertex.label());
         map.put(DocEdge.OutLabel, outVertex.label());
+        CopiedProperties copiedProperties = graph.getCopiedProperties();
+        if (copiedProperties.isEnabled()) {
+            map.put(CopiedProperties.OUT, copiedProperties.fields(outVertex));
+            map.put(CopiedProperties.IN, copiedProperties.fields(inVertex));
+        }
         return map;
     }
 
+    @Override
+    public EdgeFactory factory() {
+        ElasticGraph graph = this.graph;
+        ElasticMutations elasticMutations = this.elasticMutations;
+        String indexName = this.indexName;
+        boolean routed = this.routed;
+        String inIndexName = this.inIndexName;
+        InlineAdjacency inlineAdjacency = this.inlineAdjacency;
+        return (id, label, keyValues, outV, inV) ->
+                new DocEdge(id, label, keyValues, outV, inV, graph, elasticMutations, indexName, routed, inIndexName, inlineAdjacency);
+    }
+
     @Override
     protected void innerAddProperty(BaseProperty vertexProperty) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        elasticMutations.updateProperty(this, vertexProperty.key(), indexName, routing());
+        if (inIndexName != null) elasticMutations.updateProperty(this, vertexProperty.key(), inIndexName, inRouting());
     }
 }
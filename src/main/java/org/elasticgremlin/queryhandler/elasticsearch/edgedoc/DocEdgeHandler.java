@@ -1,16 +1,22 @@
 package org.elasticgremlin.queryhandler.elasticsearch.edgedoc;
 
-import org.apache.tinkerpop.gremlin.process.traversal.P;
+import org.apache.tinkerpop.gremlin.process.traversal.*;
 import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
 import org.apache.tinkerpop.gremlin.structure.*;
 import org.elasticgremlin.queryhandler.*;
 import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
+import org.elasticgremlin.queryhandler.elasticsearch.vertexdoc.DocVertex;
 import org.elasticgremlin.structure.*;
 import org.elasticsearch.action.get.*;
+import org.elasticsearch.action.search.*;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.tophits.*;
+import org.elasticsearch.search.sort.*;
 
 import java.util.*;
 
@@ -19,30 +25,64 @@ public class DocEdgeHandler implements EdgeHandler {
     private final Client client;
     private final ElasticMutations elasticMutations;
     private final String indexName;
-    private final int scrollSize;
+    private final ScrollSettings scroll;
     private final boolean refresh;
+    private final boolean routed;
+    private final String inIndexName;
+    private final InlineAdjacency inlineAdjacency;
     private TimingAccessor timing;
 
     public DocEdgeHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
-                          int scrollSize, boolean refresh, TimingAccessor timing) {
+                          ScrollSettings scroll, boolean refresh, TimingAccessor timing) {
+        this(graph, client, elasticMutations, indexName, scroll, refresh, timing, false);
+    }
+
+    /**
+     * @param routed whether edges are routed by their out vertex id, which keeps a vertex's out edges on its own shard
+     */
+    public DocEdgeHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
+                          ScrollSettings scroll, boolean refresh, TimingAccessor timing, boolean routed) {
+        this(graph, client, elasticMutations, indexName, null, scroll, refresh, timing, routed, null);
+    }
+
+    /**
+     * Stores every edge twice, in {@code outIndexName} routed by its out vertex id and in {@code inIndexName} routed by
+     * its in vertex id, so that the edges of a vertex in either direction are on a single shard of a single index.
+     */
+    public DocEdgeHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String outIndexName,
+                          String inIndexName, ScrollSettings scroll, boolean refresh, TimingAccessor timing) {
+        this(graph, client, elasticMutations, outIndexName, inIndexName, scroll, refresh, timing, true, null);
+    }
+
+    /**
+     * @param inIndexName the index of the edges' second copies when they are partitioned by direction, or null
+     * @param inlineAdjacency keeps the neighbours of low degree vertices on their documents, or null
+     */
+    public DocEdgeHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
+                          String inIndexName, ScrollSettings scroll, boolean refresh, TimingAccessor timing, boolean routed,
+                          InlineAdjacency inlineAdjacency) {
         this.graph = graph;
+        this.routed = routed || inIndexName != null;
+        this.inIndexName = inIndexName;
+        this.inlineAdjacency = inlineAdjacency;
         this.client = client;
         this.elasticMutations = elasticMutations;
         this.indexName = indexName;
-        this.scrollSize = scrollSize;
+        this.scroll = scroll;
         this.refresh = refresh;
         this.timing = timing;
+        if (graph.getCopiedProperties().isEnabled()) elasticMutations.setCopiedPropertiesWriter(this::copyVertexProperties);
     }
 
     @Override
     public Iterator<Edge> edges() {
-        return new QueryIterator<>(FilterBuilders.existsFilter(DocEdge.InId), 0, scrollSize, Integer.MAX_VALUE,
-                client, this::createEdge, refresh, timing, indexName);
+        return edges(new Predicates());
     }
 
     @Override
     public Iterator<Edge> edges(Object[] ids) {
-        MultiGetRequest request = new MultiGetRequest().refresh(refresh);
+        if (routed) return routedEdges(ids);
+        MultiGetRequest request = new MultiGetRequest();
         for (Object id : ids) request.add(indexName, null, id.toString());
         MultiGetResponse responses = client.multiGet(request).actionGet();
 
@@ -55,12 +95,46 @@ public class DocEdgeHandler implements EdgeHandler {
         return elements.iterator();
     }
 
+    // the routing of an edge isn't known from its id, so the edges are searched for on all the shards
+    private Iterator<Edge> routedEdges(Object[] ids) {
+        String[] stringIds = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) stringIds[i] = ids[i].toString();
+        Map<String, Edge> idToEdge = new HashMap<>();
+        WriteOverlay.View overlay = overlay(new Predicates(), indexName);
+        Iterator<Edge> edges = new QueryIterator<>(FilterBuilders.idsFilter().addIds(stringIds), 0, scroll, ids.length, client,
+                this::createEdge, overlay == null && refresh(), timing, indexName);
+        if (overlay != null) {
+            Set<String> idSet = new HashSet<>(Arrays.asList(stringIds));
+            edges = overlay.merge(edges, Edge.class, edge -> idSet.contains(edge.id().toString()), Long.MAX_VALUE);
+        }
+        edges.forEachRemaining(edge -> idToEdge.put(edge.id().toString(), edge));
+
+        ArrayList<Edge> elements = new ArrayList<>(ids.length);
+        for (String id : stringIds) {
+            Edge edge = idToEdge.get(id);
+            if (edge == null) throw Graph.Exceptions.elementNotFound(Edge.class, id);
+            elements.add(edge);
+        }
+        return elements.iterator();
+    }
+
     @Override
     public Iterator<Edge> edges(Predicates predicates) {
-        BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
-        boolFilter.must(FilterBuilders.existsFilter(DocEdge.InId));
-        return new QueryIterator<>(boolFilter, 0, scrollSize, predicates.limitHigh - predicates.limitLow,
-                client, this::createEdge, refresh, timing, indexName);
+        WriteOverlay.View overlay = overlay(predicates, indexName);
+        if (scroll.scansInParallel(predicates)) {
+            Iterator<Edge> edges = new ParallelScanIterator<>(createFilter(predicates), sourceIncludes(predicates), scroll, client,
+                    hits -> createEdge(hits, predicates.propertyKeys), overlay == null && refresh(), timing, indexName);
+            return overlay == null ? edges : overlay.merge(edges, Edge.class, edge -> true, Long.MAX_VALUE);
+        }
+        if (overlay == null)
+            return new QueryIterator<>(createFilter(predicates), predicates, sourceIncludes(predicates), scroll,
+                    client, hits -> createEdge(hits, predicates.propertyKeys), refresh(), timing, indexName);
+
+        // the hits the overlay drops are made up for by searching for as many more
+        QueryIterator<Edge> edges = new QueryIterator<>(createFilter(predicates), 0, scroll,
+                ElasticHelper.widen(predicates.limitHigh, overlay.size()), predicates.orders, sourceIncludes(predicates), client,
+                hits -> createEdge(hits, predicates.propertyKeys), false, timing, indexName);
+        return overlay.merge(edges, Edge.class, edge -> WriteOverlay.test(predicates.hasContainers, edge), predicates.limitHigh);
     }
 
     @Override
@@ -68,21 +142,19 @@ public class DocEdgeHandler implements EdgeHandler {
         Map<Object, Vertex> idToVertex = new HashMap<>();
         vertices.forEachRemaining(singleVertex -> idToVertex.put(singleVertex.id(), singleVertex));
 
-        if (edgeLabels != null && edgeLabels.length > 0)
-            predicates.hasContainers.add(new HasContainer(T.label.getAccessor(), P.within(edgeLabels)));
-
-        Object[] vertexIds = idToVertex.keySet().toArray();
-        BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
-        if (direction == Direction.IN)
-            boolFilter.must(FilterBuilders.termsFilter(DocEdge.InId, vertexIds));
-        else if (direction == Direction.OUT)
-            boolFilter.must(FilterBuilders.termsFilter(DocEdge.OutId, vertexIds));
-        else if (direction == Direction.BOTH)
-            boolFilter.must(FilterBuilders.orFilter(
-                    FilterBuilders.termsFilter(DocEdge.InId, vertexIds),
-                    FilterBuilders.termsFilter(DocEdge.OutId, vertexIds)));
-
-        QueryIterator<Edge> edgeQueryIterator = new QueryIterator<>(boolFilter, 0, scrollSize, predicates.limitHigh - predicates.limitLow, client, this::createEdge , refresh, timing, indexName);
+        long limit = predicates.limitHigh - predicates.limitLow;
+        Iterator<Edge> edgeQueryIterator;
+        if (direction == Direction.BOTH && inIndexName != null) {
+            // both copies of an edge between two of the vertices would match a search of the two indices, so each
+            // direction is searched in its own index and the edges are merged by id before the limit is applied
+            Map<Object, Edge> distinctEdges = new LinkedHashMap<>();
+            edges(idToVertex.keySet(), Direction.OUT, edgeLabels, predicates).forEachRemaining(edge -> distinctEdges.putIfAbsent(edge.id(), edge));
+            edges(idToVertex.keySet(), Direction.IN, edgeLabels, predicates).forEachRemaining(edge -> distinctEdges.putIfAbsent(edge.id(), edge));
+            List<Edge> merged = new ArrayList<>(distinctEdges.values());
+            if (!predicates.orders.isEmpty()) merged.sort(ElasticHelper.createComparator(predicates.orders));
+            edgeQueryIterator = merged.subList(0, (int) Math.min(merged.size(), limit)).iterator();
+        }
+        else edgeQueryIterator = edges(idToVertex.keySet(), direction, edgeLabels, predicates);
 
         Map<Object, Set<Edge>> results = new HashMap<>();
         edgeQueryIterator.forEachRemaining(edge -> edge.vertices(direction).forEachRemaining(vertex -> {
@@ -97,25 +169,200 @@ public class DocEdgeHandler implements EdgeHandler {
         return results;
     }
 
+    private Iterator<Edge> edges(Set<Object> ids, Direction direction, String[] edgeLabels, Predicates predicates) {
+        BoolFilterBuilder boolFilter = createFilter(ids.toArray(), direction, edgeLabels, predicates);
+        String[] indices = indices(direction);
+        WriteOverlay.View overlay = overlay(predicates, indices);
+        long limit = predicates.limitHigh - predicates.limitLow;
+        Iterator<Edge> edgeQueryIterator = new QueryIterator<>(boolFilter, 0, scroll,
+                overlay == null ? limit : ElasticHelper.widen(limit, overlay.size()), predicates.orders,
+                sourceIncludes(predicates), null, routing(ids, direction), client, hits -> createEdge(hits, predicates.propertyKeys),
+                overlay == null && refresh(indices), timing, indices);
+        if (overlay == null) return edgeQueryIterator;
+
+        Set<String> vertexIds = new HashSet<>();
+        ids.forEach(id -> vertexIds.add(id.toString()));
+        List<String> labels = edgeLabels == null || edgeLabels.length == 0 ? null : Arrays.asList(edgeLabels);
+        return overlay.merge(edgeQueryIterator, Edge.class, edge ->
+                (labels == null || labels.contains(edge.label())) && isAdjacent(edge, vertexIds, direction) &&
+                        WriteOverlay.test(predicates.hasContainers, edge), limit);
+    }
+
+    /**
+     * The edges of the vertices with the predicates' limit and order applied to each vertex on its own. A terms
+     * aggregation on the vertex id field keeps the top hits of every vertex on the shards, so a supernode costs no more
+     * than its limit.
+     */
+    public Map<Object, Set<Edge>> limitedEdges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        List<BaseVertex> vertexList = new ArrayList<>();
+        vertices.forEachRemaining(vertexList::add);
+        Map<Object, Set<Edge>> results = new HashMap<>();
+        if (vertexList.isEmpty()) return results;
+
+        // the top hits of a bucket are all kept in memory, so larger limits are searched for one vertex at a time
+        if (predicates.limitHigh > scroll.getSize()) {
+            vertexList.forEach(vertex -> {
+                Set<Edge> edges = edges(Collections.singletonList(vertex).iterator(), direction, edgeLabels, predicates).get(vertex.id());
+                if (edges != null) results.put(vertex.id(), edges);
+            });
+            return results;
+        }
+
+        Map<String, Object> vertexIds = new HashMap<>();
+        vertexList.forEach(vertex -> vertexIds.put(vertex.id().toString(), vertex.id()));
+        if (direction != Direction.BOTH) {
+            limitedEdges(vertexIds, direction, edgeLabels, predicates, results);
+            return results;
+        }
+
+        // the buckets are of a single id field, so the top edges of each direction are merged and cut again
+        limitedEdges(vertexIds, Direction.OUT, edgeLabels, predicates, results);
+        limitedEdges(vertexIds, Direction.IN, edgeLabels, predicates, results);
+        Comparator<Edge> comparator = ElasticHelper.createComparator(predicates.orders);
+        results.replaceAll((id, edges) -> {
+            if (edges.size() <= predicates.limitHigh) return edges;
+            List<Edge> sorted = new ArrayList<>(edges);
+            sorted.sort(comparator);
+            return new LinkedHashSet<>(sorted.subList(0, (int) predicates.limitHigh));
+        });
+        return results;
+    }
+
+    private void limitedEdges(Map<String, Object> vertexIds, Direction direction, String[] edgeLabels, Predicates predicates,
+                              Map<Object, Set<Edge>> results) {
+        String[] indices = indices(direction);
+        WriteOverlay.View overlay = overlay(predicates, indices);
+        if (overlay == null && refresh(indices)) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+
+        // the overlay may drop hits of every vertex, each of which fetches as many more
+        long size = overlay == null ? predicates.limitHigh : Math.min(ElasticHelper.widen(predicates.limitHigh, overlay.size()), Integer.MAX_VALUE);
+        TopHitsBuilder topHits = AggregationBuilders.topHits("edges").setSize((int) size);
+        predicates.orders.forEach(order -> topHits.addSort(SortBuilders.fieldSort(order.getValue0()).ignoreUnmapped(true)
+                .order(order.getValue1().equals(Order.decr) ? SortOrder.DESC : SortOrder.ASC)));
+        String[] sourceIncludes = sourceIncludes(predicates);
+        if (sourceIncludes != null) topHits.setFetchSource(sourceIncludes, null);
+
+        String idField = direction == Direction.IN ? DocEdge.InId : DocEdge.OutId;
+        timing.start("topHits");
+        SearchRequestBuilder searchRequest = client.prepareSearch(indices);
+        String[] routing = routing(vertexIds.keySet(), direction);
+        if (routing != null) searchRequest.setRouting(routing);
+        SearchResponse response = searchRequest
+                .setSearchType(SearchType.COUNT)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        createFilter(vertexIds.values().toArray(), direction, edgeLabels, predicates)))
+                .addAggregation(AggregationBuilders.terms("vertexIds").field(idField).size(vertexIds.size()).subAggregation(topHits))
+                .execute().actionGet();
+        timing.stop("topHits");
+
+        Map<Object, Iterator<Edge>> vertexEdges = new HashMap<>();
+        Terms terms = response.getAggregations().get("vertexIds");
+        terms.getBuckets().forEach(bucket -> {
+            TopHits hits = bucket.getAggregations().get("edges");
+            vertexEdges.put(vertexIds.get(bucket.getKey()), createEdge(hits.getHits().iterator(), predicates.propertyKeys));
+        });
+
+        List<String> labels = edgeLabels == null || edgeLabels.length == 0 ? null : Arrays.asList(edgeLabels);
+        vertexIds.forEach((stringId, vertexId) -> {
+            Iterator<Edge> edges = vertexEdges.getOrDefault(vertexId, Collections.emptyIterator());
+            if (overlay != null) {
+                Set<String> adjacentTo = Collections.singleton(stringId);
+                edges = overlay.merge(edges, Edge.class, edge -> (labels == null || labels.contains(edge.label())) &&
+                        isAdjacent(edge, adjacentTo, direction) && WriteOverlay.test(predicates.hasContainers, edge), predicates.limitHigh);
+            }
+            if (!edges.hasNext()) return;
+            Set<Edge> resultEdges = results.computeIfAbsent(vertexId, id -> new HashSet<>());
+            edges.forEachRemaining(resultEdges::add);
+        });
+    }
+
+    public Map<Object, Long> count(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        if (direction == Direction.BOTH) throw new IllegalArgumentException("edge counts per vertex are supported only for a single direction");
+        Map<String, Object> vertexIds = new HashMap<>();
+        vertices.forEachRemaining(vertex -> vertexIds.put(vertex.id().toString(), vertex.id()));
+
+        Map<Object, Long> results = new HashMap<>();
+        if (vertexIds.isEmpty()) return results;
+
+        BoolFilterBuilder boolFilter = createFilter(vertexIds.values().toArray(), direction, edgeLabels, predicates);
+        String[] indices = indices(direction);
+        if (refresh(indices)) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+        timing.start("count");
+        SearchRequestBuilder searchRequest = client.prepareSearch(indices);
+        String[] routing = routing(vertexIds.keySet(), direction);
+        if (routing != null) searchRequest.setRouting(routing);
+        SearchResponse response = searchRequest
+                .setSearchType(SearchType.COUNT)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), boolFilter))
+                .addAggregation(AggregationBuilders.terms("vertexIds")
+                        .field(direction == Direction.IN ? DocEdge.InId : DocEdge.OutId).size(vertexIds.size()))
+                .execute().actionGet();
+        timing.stop("count");
+
+        Terms terms = response.getAggregations().get("vertexIds");
+        terms.getBuckets().forEach(bucket -> results.put(vertexIds.get(bucket.getKey()), Math.min(bucket.getDocCount(), predicates.limitHigh)));
+        return results;
+    }
+
+    public BoolFilterBuilder createFilter(Predicates predicates) {
+        BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
+        boolFilter.must(FilterBuilders.existsFilter(DocEdge.InId));
+        return boolFilter;
+    }
+
+    private BoolFilterBuilder createFilter(Object[] vertexIds, Direction direction, String[] edgeLabels, Predicates predicates) {
+        ArrayList<HasContainer> hasContainers = new ArrayList<>(predicates.hasContainers);
+        if (edgeLabels != null && edgeLabels.length > 0)
+            hasContainers.add(new HasContainer(T.label.getAccessor(), P.within(edgeLabels)));
+
+        BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(hasContainers);
+        if (direction == Direction.IN)
+            boolFilter.must(FilterBuilders.termsFilter(DocEdge.InId, vertexIds));
+        else if (direction == Direction.OUT)
+            boolFilter.must(FilterBuilders.termsFilter(DocEdge.OutId, vertexIds));
+        else if (direction == Direction.BOTH)
+            boolFilter.must(FilterBuilders.orFilter(
+                    FilterBuilders.termsFilter(DocEdge.InId, vertexIds),
+                    FilterBuilders.termsFilter(DocEdge.OutId, vertexIds)));
+        return boolFilter;
+    }
+
     @Override
     public Edge addEdge(Object edgeId, String label, Vertex outV, Vertex inV, Object[] properties) {
-        DocEdge elasticEdge = new DocEdge(edgeId, label, properties, outV, inV,graph, elasticMutations, indexName);
+        DocEdge elasticEdge = new DocEdge(edgeId, label, properties, outV, inV,graph, elasticMutations, indexName, routed, inIndexName, inlineAdjacency);
         try {
-            elasticMutations.addElement(elasticEdge, indexName, null, true);
+            elasticMutations.addElement(elasticEdge, indexName, elasticEdge.routing(), true);
+            if (inIndexName != null) elasticMutations.addElement(elasticEdge, inIndexName, elasticEdge.inRouting(), true);
         }
         catch (DocumentAlreadyExistsException ex) {
             throw Graph.Exceptions.edgeWithIdAlreadyExists(elasticEdge.id());
         }
+        if (inlineAdjacency != null) inlineAdjacency.addEdge(elasticEdge);
         return elasticEdge;
     }
 
+    private String[] sourceIncludes(Predicates predicates) {
+        // the vertex ids and labels are needed to build the edge itself
+        if (graph.getCopiedProperties().isEnabled())
+            return ElasticHelper.sourceIncludes(predicates.propertyKeys, DocEdge.OutId, DocEdge.OutLabel, DocEdge.InId, DocEdge.InLabel,
+                    CopiedProperties.OUT, CopiedProperties.IN);
+        return ElasticHelper.sourceIncludes(predicates.propertyKeys, DocEdge.OutId, DocEdge.OutLabel, DocEdge.InId, DocEdge.InLabel);
+    }
+
     private Iterator<Edge> createEdge(Iterator<SearchHit> hits) {
+        return createEdge(hits, null);
+    }
+
+    private Iterator<Edge> createEdge(Iterator<SearchHit> hits, Set<String> loadedKeys) {
         ArrayList<Edge> edges = new ArrayList<>();
         hits.forEachRemaining(hit -> {
             Map<String, Object> fields = hit.getSource();
             BaseVertex outVertex = graph.getQueryHandler().vertex(fields.get(DocEdge.OutId), fields.get(DocEdge.OutLabel).toString(), null, Direction.OUT);
             BaseVertex inVertex = graph.getQueryHandler().vertex(fields.get(DocEdge.InId), fields.get(DocEdge.InLabel).toString(), null, Direction.IN);
-            BaseEdge edge = new DocEdge(hit.getId(), hit.getType(), null, outVertex, inVertex, graph, elasticMutations, indexName);
+            applyCopiedProperties(outVertex, fields.get(CopiedProperties.OUT));
+            applyCopiedProperties(inVertex, fields.get(CopiedProperties.IN));
+            BaseEdge edge = new DocEdge(hit.getId(), hit.getType(), null, outVertex, inVertex, graph, elasticMutations, indexName, routed, inIndexName, inlineAdjacency);
+            edge.setLoadedKeys(loadedKeys);
             fields.entrySet().forEach((field) -> edge.addPropertyLocal(field.getKey(), field.getValue()));
             edges.add(edge);
         });
@@ -126,8 +373,102 @@ public class DocEdgeHandler implements EdgeHandler {
         Map<String, Object> fields = hit.getSource();
         BaseVertex outVertex = graph.getQueryHandler().vertex(fields.get(DocEdge.OutId), fields.get(DocEdge.OutLabel).toString(), null, Direction.OUT);
         BaseVertex inVertex = graph.getQueryHandler().vertex(fields.get(DocEdge.InId), fields.get(DocEdge.InLabel).toString(), null, Direction.IN);
-        BaseEdge edge = new DocEdge(hit.getId(), hit.getType(), null, outVertex, inVertex, graph, elasticMutations, indexName);
+        applyCopiedProperties(outVertex, fields.get(CopiedProperties.OUT));
+        applyCopiedProperties(inVertex, fields.get(CopiedProperties.IN));
+        BaseEdge edge = new DocEdge(hit.getId(), hit.getType(), null, outVertex, inVertex, graph, elasticMutations, indexName, routed, inIndexName, inlineAdjacency);
         fields.entrySet().forEach((field) -> edge.addPropertyLocal(field.getKey(), field.getValue()));
         return edge;
     }
+
+    // rewrites the copies of the vertices' properties on all their edges, with one search per direction that only
+    // fetches the edges' vertex ids, from which the routing of both their copies follows
+    private void copyVertexProperties(Collection<Vertex> vertices) {
+        Map<String, Map<String, Object>> vertexFields = new HashMap<>();
+        vertices.forEach(vertex -> vertexFields.put(vertex.id().toString(), graph.getCopiedProperties().fields(vertex)));
+        timing.start("copyVertexProperties");
+        try {
+            copyVertexProperties(vertexFields, Direction.OUT);
+            copyVertexProperties(vertexFields, Direction.IN);
+        }
+        finally {
+            timing.stop("copyVertexProperties");
+        }
+    }
+
+    private void copyVertexProperties(Map<String, Map<String, Object>> vertexFields, Direction direction) {
+        String index = indices(direction)[0];
+        String idField = direction == Direction.OUT ? DocEdge.OutId : DocEdge.InId;
+        if (elasticMutations.needsRefresh(index)) client.admin().indices().prepareRefresh(index).execute().actionGet();
+        SearchRequestBuilder searchRequest = client.prepareSearch(index)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), FilterBuilders.termsFilter(idField, vertexFields.keySet())))
+                .setFetchSource(new String[]{DocEdge.OutId, DocEdge.InId}, null)
+                .setSearchType(SearchType.SCAN).setScroll(scroll.getKeepAlive()).setSize(scroll.getSize());
+        String[] routing = routing(vertexFields.keySet(), direction);
+        if (routing != null) searchRequest.setRouting(routing);
+
+        String scrollId = searchRequest.execute().actionGet().getScrollId();
+        try {
+            while (scrollId != null) {
+                SearchResponse response = client.prepareSearchScroll(scrollId).setScroll(scroll.getKeepAlive()).execute().actionGet();
+                if (response.getScrollId() != null) scrollId = response.getScrollId();
+                if (response.getHits().getHits().length == 0) break;
+                for (SearchHit hit : response.getHits().getHits()) {
+                    Map<String, Object> source = hit.getSource();
+                    Map<String, Object> fields = Collections.singletonMap(CopiedProperties.field(direction),
+                            vertexFields.get(source.get(idField).toString()));
+                    String outId = source.get(DocEdge.OutId).toString();
+                    elasticMutations.updateFields(indexName, hit.getType(), hit.getId(), routed ? outId : null, fields);
+                    if (inIndexName != null)
+                        elasticMutations.updateFields(inIndexName, hit.getType(), hit.getId(), source.get(DocEdge.InId).toString(), fields);
+                }
+            }
+        }
+        finally {
+            if (scrollId != null) client.prepareClearScroll().addScrollId(scrollId).execute();
+        }
+    }
+
+    private void applyCopiedProperties(BaseVertex vertex, Object copiedProperties) {
+        if (copiedProperties instanceof Map && vertex instanceof DocVertex)
+            ((DocVertex) vertex).applyCopiedProperties((Map<String, Object>) copiedProperties);
+    }
+
+    private static boolean isAdjacent(Edge edge, Set<String> vertexIds, Direction direction) {
+        boolean out = vertexIds.contains(edge.outVertex().id().toString());
+        boolean in = vertexIds.contains(edge.inVertex().id().toString());
+        return direction == Direction.OUT ? out : direction == Direction.IN ? in : out || in;
+    }
+
+    // the edge copies of every direction asked for, which are all in the index when the edges aren't partitioned
+    // both directions of partitioned edges are searched one index at a time, never through the two copies together
+    private String[] indices(Direction direction) {
+        if (inIndexName == null || direction == Direction.OUT) return new String[]{indexName};
+        if (direction == Direction.IN) return new String[]{inIndexName};
+        throw new IllegalArgumentException("the edges of both directions are in separate indices");
+    }
+
+    // out edges are searched for on the vertices' own shards, and so are in edges when they have their own index
+    private String[] routing(Collection<?> vertexIds, Direction direction) {
+        if (!routed || (direction != Direction.OUT && inIndexName == null)) return null;
+        String[] routing = new String[vertexIds.size()];
+        int i = 0;
+        for (Object id : vertexIds) routing[i++] = id.toString();
+        return routing;
+    }
+
+    private boolean refresh() {
+        return refresh(indexName);
+    }
+
+    private boolean refresh(String... indices) {
+        return (refresh || elasticMutations.getOverlay() != null) && elasticMutations.needsRefresh(indices);
+    }
+
+    // the overlay of this graph's unrefreshed writes to merge into a search, or null when the search refreshes instead
+    private WriteOverlay.View overlay(Predicates predicates, String... indices) {
+        WriteOverlay overlay = elasticMutations.getOverlay();
+        if (overlay == null || !WriteOverlay.canMerge(predicates)) return null;
+        WriteOverlay.View view = overlay.view(indices);
+        return view.isEmpty() ? null : view;
+    }
 }
@@ -0,0 +1,71 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.Predicates;
+
+import java.util.*;
+
+/**
+ * The vertex properties copied onto the documents of the vertices' edges, under ~out and ~in, so that a step reading
+ * or filtering the adjacent vertices by them is answered by the edge search alone.
+ */
+public class CopiedProperties {
+
+    public static final String OUT = "~out";
+    public static final String IN = "~in";
+
+    private final Set<String> keys = new HashSet<>();
+
+    public CopiedProperties(Configuration configuration) {
+        for (String value : configuration.getStringArray("elasticsearch.edgeVertexProperties"))
+            for (String key : value.split(","))
+                if (!key.trim().isEmpty()) keys.add(key.trim());
+    }
+
+    public boolean isEnabled() {
+        return !keys.isEmpty();
+    }
+
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    public boolean containsAll(Collection<String> keys) {
+        return isEnabled() && keys != null && !keys.isEmpty() && this.keys.containsAll(keys);
+    }
+
+    public static String field(Direction direction) {
+        return direction == Direction.OUT ? OUT : IN;
+    }
+
+    /**
+     * The copied properties of a vertex, with a null for each one it doesn't have so that a partial update removes it.
+     */
+    public Map<String, Object> fields(Vertex vertex) {
+        Map<String, Object> fields = new HashMap<>();
+        keys.forEach(key -> {
+            VertexProperty<Object> property = vertex.property(key);
+            fields.put(key, property.isPresent() ? property.value() : null);
+        });
+        return fields;
+    }
+
+    /**
+     * The predicates of a search for the edges whose other vertex passes the given vertex predicates, or null when
+     * they don't only filter copied properties.
+     */
+    public Predicates edgePredicates(Direction direction, Predicates predicates) {
+        if (!isEnabled() || direction == Direction.BOTH) return null;
+        Predicates edgePredicates = new Predicates();
+        String prefix = field(direction.opposite()) + ".";
+        for (HasContainer hasContainer : predicates.hasContainers) {
+            if (!keys.contains(hasContainer.getKey())) return null;
+            edgePredicates.hasContainers.add(new HasContainer(prefix + hasContainer.getKey(), hasContainer.getPredicate()));
+        }
+        edgePredicates.limitHigh = predicates.limitHigh;
+        edgePredicates.propertyKeys = Collections.emptySet();
+        return edgePredicates;
+    }
+}
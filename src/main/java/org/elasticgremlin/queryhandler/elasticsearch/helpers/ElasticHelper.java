@@ -1,14 +1,18 @@
 package org.elasticgremlin.queryhandler.elasticsearch.helpers;
 
 import org.apache.tinkerpop.gremlin.process.traversal.*;
-import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.*;
+import org.apache.tinkerpop.gremlin.structure.Element;
+import org.elasticgremlin.queryhandler.Predicates;
 import org.elasticgremlin.queryhandler.elasticsearch.Geo;
 import org.elasticsearch.action.admin.cluster.health.*;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.exists.indices.*;
 import org.elasticsearch.action.admin.indices.mapping.delete.DeleteMappingResponse;
 import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
+import org.elasticsearch.action.search.*;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.geo.builders.ShapeBuilder;
 import org.elasticsearch.common.settings.*;
@@ -16,6 +20,12 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.query.*;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.*;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.elasticsearch.search.sort.*;
+import org.javatuples.Pair;
 
 import java.io.IOException;
 import java.util.*;
@@ -42,6 +52,14 @@ public class ElasticHelper {
         }
     }
 
+    public static int shards(Client client, String... indices) {
+        GetSettingsResponse response = client.admin().indices().prepareGetSettings(indices).execute().actionGet();
+        int[] shards = {1};
+        response.getIndexToSettings().forEach(settings ->
+                shards[0] = Math.max(shards[0], settings.value.getAsInt("index.number_of_shards", 1)));
+        return shards[0];
+    }
+
     public static DeleteByQueryResponse clearIndex(Client client, String indexName){
         DeleteByQueryResponse indexDeleteByQueryResponses = client.prepareDeleteByQuery(indexName).setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
 
@@ -64,6 +82,93 @@ public class ElasticHelper {
         return boolFilter;
     }
 
+    public static String[] sourceIncludes(Set<String> propertyKeys, String... hiddenFields) {
+        if (propertyKeys == null) return null;
+        List<String> includes = new ArrayList<>(propertyKeys);
+        Collections.addAll(includes, hiddenFields);
+        return includes.toArray(new String[includes.size()]);
+    }
+
+    /**
+     * A search limit raised by the given number of hits, without overflowing an unlimited one.
+     */
+    public static long widen(long limit, long hits) {
+        return limit > Long.MAX_VALUE - hits ? Long.MAX_VALUE : limit + hits;
+    }
+
+    public static <E extends Element> Comparator<E> createComparator(List<Pair<String, Order>> orders) {
+        Comparator<E> comparator = (first, second) -> 0;
+        for (Pair<String, Order> order : orders)
+            comparator = comparator.thenComparing(new ElementValueComparator<>(order.getValue0(), order.getValue1()));
+        return comparator;
+    }
+
+    public static long count(FilterBuilder filter, Predicates predicates, Client client, Boolean refresh, TimingAccessor timing, String... indices) {
+        if (refresh) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+        timing.start("count");
+        long count = client.prepareCount(indices)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                .execute().actionGet().getCount();
+        timing.stop("count");
+        return Math.max(0, Math.min(count - predicates.limitLow, predicates.limitHigh - predicates.limitLow));
+    }
+
+    public static Map<Object, Long> groupCount(FilterBuilder filter, String key, Client client, Boolean refresh, TimingAccessor timing, String... indices) {
+        if (refresh) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+        timing.start("groupCount");
+        SearchResponse response = client.prepareSearch(indices)
+                .setSearchType(SearchType.COUNT)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                .addAggregation(AggregationBuilders.terms("groups").field(key).size(0))
+                .execute().actionGet();
+        timing.stop("groupCount");
+
+        Map<Object, Long> results = new HashMap<>();
+        Terms terms = response.getAggregations().get("groups");
+        terms.getBuckets().forEach(bucket -> results.put(termKey(terms, bucket), bucket.getDocCount()));
+        return results;
+    }
+
+    public static Number extremum(FilterBuilder filter, String key, SortOrder order, Client client, Boolean refresh, TimingAccessor timing, String... indices) {
+        if (refresh) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+        timing.start("extremum");
+        SearchResponse response = client.prepareSearch(indices)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+                        FilterBuilders.andFilter(filter, FilterBuilders.existsFilter(key))))
+                .addSort(SortBuilders.fieldSort(key).order(order).ignoreUnmapped(true))
+                .setFetchSource(key, null)
+                .setSize(1)
+                .execute().actionGet();
+        timing.stop("extremum");
+
+        SearchHit[] hits = response.getHits().getHits();
+        // read the value from the source rather than the sort value, so it keeps the type it was stored with
+        return hits.length == 0 ? null : (Number) hits[0].getSource().get(key);
+    }
+
+    public static Stats stats(FilterBuilder filter, String key, Client client, Boolean refresh, TimingAccessor timing, String... indices) {
+        if (refresh) client.admin().indices().prepareRefresh(indices).execute().actionGet();
+        timing.start("stats");
+        SearchResponse response = client.prepareSearch(indices)
+                .setSearchType(SearchType.COUNT)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                .addAggregation(AggregationBuilders.stats("stats").field(key))
+                .execute().actionGet();
+        timing.stop("stats");
+        return response.getAggregations().get("stats");
+    }
+
+    private static Object termKey(Terms terms, Terms.Bucket bucket) {
+        if (terms instanceof DoubleTerms) return bucket.getKeyAsNumber().doubleValue();
+        if (terms instanceof LongTerms) {
+            // integral json values are read back as Integer whenever they fit, keep the keys comparable with them
+            long value = bucket.getKeyAsNumber().longValue();
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) return (int) value;
+            return value;
+        }
+        return bucket.getKey();
+    }
+
     private static void addFilter(BoolFilterBuilder boolFilterBuilder, HasContainer has){
         String key = has.getKey();
         Object value = has.getValue();
@@ -75,6 +180,10 @@ public class ElasticHelper {
                 for(Object id : (Object[])value)
                     idsFilterBuilder.addIds(id.toString());
             }
+            else if(value instanceof Collection) {
+                for(Object id : (Collection)value)
+                    idsFilterBuilder.addIds(id.toString());
+            }
             else idsFilterBuilder.addIds(value.toString());
             boolFilterBuilder.must(idsFilterBuilder);
         }
@@ -1,35 +1,83 @@
 package org.elasticgremlin.queryhandler.elasticsearch.helpers;
 
-import org.apache.tinkerpop.gremlin.structure.Element;
+import org.apache.commons.configuration.*;
+import org.apache.tinkerpop.gremlin.structure.*;
 import org.elasticgremlin.structure.BaseElement;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.*;
+import org.elasticsearch.action.bulk.*;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.index.IndexRequestBuilder;
-import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.*;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class ElasticMutations {
 
+    private static final int MAX_REPORTED_FAILURES = 100;
+
     private final TimingAccessor timing;
     private Client client;
-    private BulkRequestBuilder bulkRequest;
+    private BulkProcessor bulkProcessor;
+    private Semaphore asyncWindow;
+    private int maxInFlight;
+    // the asynchronous write in flight of each document, answered when its latch is counted down
+    private final Map<String, CountDownLatch> inFlightDocuments = new ConcurrentHashMap<>();
+    // guards the bulk bookkeeping separately, a writer blocked in bulkProcessor.add() or on the async window holds
+    // this instance's lock
+    private final Object bulkLock = new Object();
+    private int inFlightBulks = 0;
+    private long failureCount = 0;
+    private final List<String> failures = new ArrayList<>();
+    private final Map<String, PendingUpdate> pendingUpdates = new LinkedHashMap<>();
     private int revision = 0;
+    // counts the writes ES has answered, refreshes are skipped when none were answered since the last one
+    private final AtomicLong answeredWrites = new AtomicLong();
+    private final Map<String, Long> refreshedWrites = new ConcurrentHashMap<>();
+    private WriteOverlay overlay = null;
+    // the vertices whose copied properties changed since the last flush, which rewrites them on their edges
+    private final Map<String, Vertex> copiedVertices = new LinkedHashMap<>();
+    private Consumer<Collection<Vertex>> copiedPropertiesWriter = null;
 
     public ElasticMutations(Boolean bulk, Client client, TimingAccessor timing) {
-        if(bulk) bulkRequest = client.prepareBulk();
+        this(new MapConfiguration(Collections.singletonMap("elasticsearch.bulk", bulk)), client, timing);
+    }
+
+    public ElasticMutations(Configuration configuration, Client client, TimingAccessor timing) {
         this.timing = timing;
         this.client = client;
+        if (configuration.getBoolean("elasticsearch.overlay", false))
+            overlay = new WriteOverlay(configuration.getInt("elasticsearch.overlay.maxSize", 10000));
+        if (!configuration.getBoolean("elasticsearch.bulk", false)) {
+            if (configuration.getBoolean("elasticsearch.async", false)) {
+                maxInFlight = configuration.getInt("elasticsearch.async.maxInFlight", 100);
+                asyncWindow = new Semaphore(maxInFlight);
+            }
+            return;
+        }
+
+        long flushInterval = configuration.getLong("elasticsearch.bulk.flushInterval", 0);
+        // the processor blocks new requests while all the concurrent bulks are in flight, which throttles the writers
+        bulkProcessor = BulkProcessor.builder(client, new BulkListener())
+                .setBulkActions(configuration.getInt("elasticsearch.bulk.actions", 1000))
+                .setBulkSize(new ByteSizeValue(configuration.getLong("elasticsearch.bulk.sizeMb", 5), ByteSizeUnit.MB))
+                .setFlushInterval(flushInterval > 0 ? TimeValue.timeValueMillis(flushInterval) : null)
+                .setConcurrentRequests(configuration.getInt("elasticsearch.bulk.concurrentRequests", 1))
+                .build();
     }
 
-    public void addElement(Element element, String index, String routing,  boolean create) {
+    public synchronized void addElement(Element element, String index, String routing,  boolean create) {
+        flush();
         IndexRequestBuilder indexRequest = client.prepareIndex(index, element.label(), element.id().toString())
                 .setSource(propertiesMap(element)).setRouting(routing).setCreate(create);
-        if(bulkRequest != null) bulkRequest.add(indexRequest);
-        else indexRequest.execute().actionGet();
+        execute(indexRequest);
         revision++;
+        written(index, element);
     }
 
     private Map propertiesMap(Element element) {
@@ -41,32 +89,349 @@ public class ElasticMutations {
         return map;
     }
 
-    public void updateElement(Element element, String index, String routing, boolean upsert) throws ExecutionException, InterruptedException {
-        UpdateRequest updateRequest = new UpdateRequest(index, element.label(), element.id().toString())
-                .doc(propertiesMap(element)).routing(routing);
-        if(upsert)
-            updateRequest.detectNoop(true).docAsUpsert(true);
-        if(bulkRequest != null) bulkRequest.add(updateRequest);
-        else client.update(updateRequest).actionGet();
+    /**
+     * Records a changed property. The changes of an element are sent together as one partial update by the next
+     * flush(), which runs before any other element is added or deleted, before reads and on commit().
+     */
+    public synchronized void updateProperty(Element element, String key, String index, String routing) {
+        pendingUpdate(element, index, routing).keys.add(key);
+        revision++;
+        written(index, element);
+    }
+
+    public synchronized void removeProperty(Element element, String key, String index, String routing) {
+        // a partial update can't remove a field, so the element's document is indexed again
+        pendingUpdate(element, index, routing).reindex = true;
+        revision++;
+        written(index, element);
+    }
+
+    /**
+     * Records fields of the element's document that aren't properties of the element, sent with its other changes.
+     */
+    public synchronized void updateFields(Element element, Map<String, Object> fields, String index, String routing) {
+        pendingUpdate(element, index, routing).fields.putAll(fields);
+        revision++;
+        written(index, element);
+    }
+
+    /**
+     * Records fields of a document that no element was loaded for, sent with the document's other changes.
+     */
+    public synchronized void updateFields(String index, String type, String id, String routing, Map<String, Object> fields) {
+        pendingUpdate(index, type, id, routing).fields.putAll(fields);
+        revision++;
+    }
+
+    /**
+     * Records a vertex whose copied properties changed. Its edges are looked up and their copies rewritten by the next
+     * flush, together with those of every other vertex changed until then.
+     */
+    public synchronized void updateCopiedProperties(Vertex vertex) {
+        copiedVertices.put(vertex.id().toString(), vertex);
         revision++;
     }
 
+    /**
+     * Sets what rewrites the copied properties of the vertices on their edges, from within flush().
+     */
+    public void setCopiedPropertiesWriter(Consumer<Collection<Vertex>> copiedPropertiesWriter) {
+        this.copiedPropertiesWriter = copiedPropertiesWriter;
+    }
+
+    private PendingUpdate pendingUpdate(Element element, String index, String routing) {
+        PendingUpdate pendingUpdate = pendingUpdate(index, element.label(), element.id().toString(), routing);
+        pendingUpdate.element = element;
+        return pendingUpdate;
+    }
+
+    private PendingUpdate pendingUpdate(String index, String type, String id, String routing) {
+        String key = index + "/" + type + "/" + id;
+        PendingUpdate pendingUpdate = pendingUpdates.get(key);
+        if (pendingUpdate == null) {
+            pendingUpdate = new PendingUpdate(index, type, id, routing);
+            pendingUpdates.put(key, pendingUpdate);
+        }
+        return pendingUpdate;
+    }
+
+    public synchronized void flush() {
+        if (!copiedVertices.isEmpty()) {
+            List<Vertex> vertices = new ArrayList<>(copiedVertices.values());
+            copiedVertices.clear();
+            if (copiedPropertiesWriter != null) {
+                // the search for the vertices' edges has to see the edges still buffered in a bulk or in flight
+                awaitWrites();
+                copiedPropertiesWriter.accept(vertices);
+            }
+        }
+        if (pendingUpdates.isEmpty()) return;
+        List<PendingUpdate> updates = new ArrayList<>(pendingUpdates.values());
+        pendingUpdates.clear();
+        // synchronous updates of several documents, like a vertex and the edges its properties are copied to, are
+        // sent as one bulk
+        BulkRequestBuilder bulk = bulkProcessor == null && asyncWindow == null && updates.size() > 1 ? client.prepareBulk() : null;
+        updates.forEach(update -> {
+            Element element = update.element;
+            if (update.reindex) {
+                // load the fields a projected element hasn't fetched, so that indexing doesn't drop them
+                element.keys();
+                Map source = propertiesMap(element);
+                source.putAll(update.fields);
+                IndexRequestBuilder indexRequest = client.prepareIndex(update.index, element.label(), element.id().toString())
+                        .setSource(source).setRouting(update.routing);
+                if (bulk != null) bulk.add(indexRequest);
+                else execute(indexRequest);
+                return;
+            }
+
+            Map<String, Object> doc = new HashMap<>(update.fields);
+            if (!update.keys.isEmpty()) {
+                Map fields = propertiesMap(element);
+                update.keys.forEach(key -> doc.put(key, fields.get(key)));
+            }
+            UpdateRequestBuilder updateRequest = client.prepareUpdate(update.index, update.type, update.id)
+                    .setDoc(doc).setRouting(update.routing);
+            if (bulk != null) bulk.add(updateRequest);
+            else execute(updateRequest);
+        });
+        if (bulk == null) return;
 
-    public void deleteElement(Element element, String index, String routing) {
+        BulkResponse response;
+        try {
+            response = bulk.get();
+        }
+        finally {
+            answeredWrites.addAndGet(updates.size());
+        }
+        if (response.hasFailures()) throw new ElasticsearchException(response.buildFailureMessage());
+    }
+
+    public synchronized void deleteElement(Element element, String index, String routing) {
+        flush();
         DeleteRequestBuilder deleteRequestBuilder = client.prepareDelete(index, element.label(), element.id().toString()).setRouting(routing);
-        if(bulkRequest != null) bulkRequest.add(deleteRequestBuilder);
-        else deleteRequestBuilder.execute().actionGet();
+        execute(deleteRequestBuilder);
         revision++;
+        if (overlay == null) return;
+        overlay.deleted(index, element);
+        if (overlay.isFull()) refreshOverlay();
+    }
+
+    private void written(String index, Element element) {
+        if (overlay == null) return;
+        overlay.written(index, element);
+        if (overlay.isFull()) refreshOverlay();
     }
 
+    /**
+     * The elements written since their indices were last refreshed, or null when searches refresh the indices instead.
+     */
+    public WriteOverlay getOverlay() {
+        return overlay;
+    }
+
+    // waits for all the writes, so that the refresh makes every element in the overlay searchable
+    private synchronized void refreshOverlay() {
+        flush();
+        awaitWrites();
+        Set<String> indices = overlay.getIndices();
+        if (!indices.isEmpty()) {
+            long writes = answeredWrites.get();
+            client.admin().indices().prepareRefresh(indices.toArray(new String[indices.size()])).execute().actionGet();
+            indices.forEach(index -> refreshedWrites.put(index, writes));
+        }
+        overlay.clear();
+    }
+
+    private <Response extends ActionResponse> void execute(ActionRequestBuilder<?, Response, ?, ?> requestBuilder) {
+        if (bulkProcessor != null) {
+            bulkProcessor.add(requestBuilder.request());
+            return;
+        }
+        if (asyncWindow == null) {
+            try {
+                requestBuilder.get();
+            }
+            finally {
+                answeredWrites.incrementAndGet();
+            }
+            return;
+        }
+
+        // the writer only waits when maxInFlight requests haven't been answered yet, or when the document's previous
+        // write hasn't, which keeps an update from overtaking the index request that creates its document
+        String document = document(requestBuilder.request());
+        CountDownLatch answered = new CountDownLatch(1);
+        try {
+            CountDownLatch previous = document == null ? null : inFlightDocuments.get(document);
+            if (previous != null) previous.await();
+            asyncWindow.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("interrupted while waiting for asynchronous writes", e);
+        }
+        if (document != null) inFlightDocuments.put(document, answered);
+        String description = requestBuilder.request().getClass().getSimpleName();
+        requestBuilder.execute(new ActionListener<Response>() {
+            @Override
+            public void onResponse(Response response) {
+                answeredWrites.incrementAndGet();
+                answered(document, answered);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                addFailure(description + ": " + e.getMessage());
+                answeredWrites.incrementAndGet();
+                answered(document, answered);
+            }
+        });
+    }
+
+    private void answered(String document, CountDownLatch answered) {
+        if (document != null) inFlightDocuments.remove(document, answered);
+        answered.countDown();
+        asyncWindow.release();
+    }
+
+    private static String document(ActionRequest request) {
+        if (!(request instanceof DocumentRequest)) return null;
+        DocumentRequest documentRequest = (DocumentRequest) request;
+        return documentRequest.index() + "/" + documentRequest.type() + "/" + documentRequest.id();
+    }
+
+    /**
+     * Sends the pending mutations, waits for all the asynchronous writes and bulks in flight and throws if any of them
+     * failed since the last commit.
+     */
     public void commit() {
-        if (bulkRequest == null) return;
-        timing.start("bulk");
-        bulkRequest.execute().actionGet();
-        timing.stop("bulk");
+        flush();
+        timing.start("commit");
+        try {
+            awaitWrites();
+        }
+        finally {
+            timing.stop("commit");
+        }
+        if (overlay != null) refreshOverlay();
+        synchronized (bulkLock) {
+            if (failureCount > 0) {
+                String message = failureCount + " writes failed: " + String.join(", ", failures);
+                failureCount = 0;
+                failures.clear();
+                throw new ElasticsearchException(message);
+            }
+        }
+    }
+
+    private void awaitWrites() {
+        try {
+            if (asyncWindow != null) awaitAsyncWrites(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (bulkProcessor != null) awaitBulks();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("interrupted while waiting for writes", e);
+        }
+    }
+
+    private void awaitAsyncWrites(long timeout, TimeUnit unit) throws InterruptedException {
+        if (asyncWindow.tryAcquire(maxInFlight, timeout, unit)) asyncWindow.release(maxInFlight);
+    }
+
+    private void awaitBulks() throws InterruptedException {
+        bulkProcessor.flush();
+        synchronized (bulkLock) {
+            while (inFlightBulks > 0) bulkLock.wait();
+        }
+    }
+
+    public void close() {
+        // the coalesced property updates are only written on flush, and would otherwise be lost with the client
+        flush();
+        try {
+            if (asyncWindow != null) awaitAsyncWrites(1, TimeUnit.MINUTES);
+            if (bulkProcessor != null) bulkProcessor.awaitClose(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns whether ES answered any write since the indices were last checked, in which case the caller is expected to
+     * refresh them before searching. A write answered while the caller refreshes marks the indices stale again.
+     */
+    public boolean needsRefresh(String... indices) {
+        long writes = answeredWrites.get();
+        boolean stale = false;
+        for (String index : indices) {
+            Long refreshed = refreshedWrites.put(index, writes);
+            stale |= refreshed == null || refreshed != writes;
+        }
+        return stale;
     }
 
     public int getRevision() {
         return revision;
     }
+
+    private void addFailure(String failure) {
+        synchronized (bulkLock) {
+            failureCount++;
+            if (failures.size() < MAX_REPORTED_FAILURES) failures.add(failure);
+        }
+    }
+
+    private static class PendingUpdate {
+        // null for a document that only has fields to update
+        private Element element;
+        private final String index;
+        private final String type;
+        private final String id;
+        private final String routing;
+        private final Set<String> keys = new HashSet<>();
+        private final Map<String, Object> fields = new HashMap<>();
+        private boolean reindex = false;
+
+        public PendingUpdate(String index, String type, String id, String routing) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+            this.routing = routing;
+        }
+    }
+
+    private class BulkListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            synchronized (bulkLock) {
+                inFlightBulks++;
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            if (response.hasFailures()) {
+                for (BulkItemResponse item : response.getItems())
+                    if (item.isFailed()) addFailure("[" + item.getType() + "][" + item.getId() + "] " + item.getFailureMessage());
+            }
+            bulkDone();
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            for (ActionRequest action : request.requests()) addFailure(action.getClass().getSimpleName() + ": " + failure.getMessage());
+            bulkDone();
+        }
+
+        private void bulkDone() {
+            answeredWrites.incrementAndGet();
+            synchronized (bulkLock) {
+                inFlightBulks--;
+                bulkLock.notifyAll();
+            }
+        }
+    }
 }
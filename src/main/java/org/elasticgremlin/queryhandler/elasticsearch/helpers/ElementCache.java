@@ -0,0 +1,87 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import java.util.*;
+
+/**
+ * A least recently used cache shared by all the traversals of a graph, bounded by the estimated size of its values.
+ * Entries are tagged with the graph's mutation revision, and the whole cache is dropped once the revision moves on.
+ */
+public class ElementCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private int revision = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public ElementCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public synchronized <V> V get(Object key, int revision) {
+        invalidate(revision);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (V) entry.value;
+    }
+
+    public synchronized void put(Object key, Object value, long size, int revision) {
+        if (size > maxBytes) return;
+        invalidate(revision);
+        Entry previous = entries.put(key, new Entry(value, size));
+        if (previous != null) bytes -= previous.size;
+        bytes += size;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    private void invalidate(int revision) {
+        if (this.revision == revision) return;
+        entries.clear();
+        bytes = 0;
+        this.revision = revision;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public static long sizeOf(Map<String, Object> fields) {
+        long size = 64;
+        if (fields == null) return size;
+        for (Map.Entry<String, Object> field : fields.entrySet())
+            size += 32 + 2 * field.getKey().length() + (field.getValue() == null ? 0 : 2 * field.getValue().toString().length());
+        return size;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long size;
+
+        public Entry(Object value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import java.lang.ref.*;
+import java.util.*;
+
+/**
+ * Maps ids to the single element instance materialised for them, as long as the instance is referenced elsewhere.
+ * The map is dropped once the graph's mutation revision moves on, so a removed or rewritten element isn't handed out.
+ * Every thread has a map of its own, since the instances keep mutable state (their loaded properties, projection and
+ * queried edges) that traversals running on other threads must not share.
+ */
+public class IdentityMap<V> {
+
+    private final ThreadLocal<Scope<V>> scopes = ThreadLocal.withInitial(Scope::new);
+
+    public V get(Object id, int revision) {
+        Scope<V> scope = scopes.get();
+        scope.purge(revision);
+        IdReference<V> reference = scope.references.get(id);
+        return reference == null ? null : reference.get();
+    }
+
+    public void put(Object id, V value, int revision) {
+        Scope<V> scope = scopes.get();
+        scope.purge(revision);
+        scope.references.put(id, new IdReference<>(id, value, scope.collected));
+    }
+
+    private static class Scope<V> {
+        private final Map<Object, IdReference<V>> references = new HashMap<>();
+        private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+        private int revision = 0;
+
+        private void purge(int revision) {
+            if (this.revision != revision) {
+                references.clear();
+                this.revision = revision;
+            }
+            Reference<? extends V> reference;
+            while ((reference = collected.poll()) != null) {
+                IdReference<V> idReference = (IdReference<V>) reference;
+                // the id may have been mapped again since
+                if (references.get(idReference.id) == idReference) references.remove(idReference.id);
+            }
+        }
+    }
+
+    private static class IdReference<V> extends WeakReference<V> {
+        private final Object id;
+
+        public IdReference(Object id, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.id = id;
+        }
+    }
+}
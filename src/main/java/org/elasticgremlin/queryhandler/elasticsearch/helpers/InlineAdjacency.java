@@ -0,0 +1,148 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.Client;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Keeps an array of (edge label, neighbour id, neighbour label, direction) on the document of every vertex whose
+ * degree is below a threshold, so that its neighbours are read from the vertex document rather than searched for
+ * among the edges. A vertex that passes the threshold has its array dropped and its edges are searched for again.
+ * The arrays are written from the ones this graph last wrote or fetched, edges of the same vertices added through
+ * other clients aren't seen.
+ */
+public class InlineAdjacency {
+
+    public static final String FIELD = "~adjacency";
+    private static final String LABEL = "label";
+    private static final String ID = "id";
+    private static final String VERTEX_LABEL = "vertexLabel";
+    private static final String DIRECTION = "direction";
+    private static final int MAX_KNOWN = 100000;
+
+    private final Client client;
+    private final ElasticMutations elasticMutations;
+    private final String indexName;
+    private final int maxDegree;
+    // the current arrays of the recently written vertices, null for a vertex without one
+    private final LinkedHashMap<String, List<Map<String, Object>>> known = new LinkedHashMap<String, List<Map<String, Object>>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Map<String, Object>>> eldest) {
+            return size() > MAX_KNOWN;
+        }
+    };
+
+    public InlineAdjacency(int maxDegree, Client client, ElasticMutations elasticMutations, String indexName) {
+        this.maxDegree = maxDegree;
+        this.client = client;
+        this.elasticMutations = elasticMutations;
+        this.indexName = indexName;
+    }
+
+    public synchronized void created(Vertex vertex) {
+        known.put(vertex.id().toString(), new ArrayList<>());
+    }
+
+    public synchronized void removed(Vertex vertex) {
+        known.put(vertex.id().toString(), null);
+    }
+
+    public synchronized boolean isKnown(Object vertexId) {
+        return known.containsKey(vertexId.toString());
+    }
+
+    public synchronized List<Map<String, Object>> get(Object vertexId) {
+        List<Map<String, Object>> adjacency = known.get(vertexId.toString());
+        return adjacency == null ? null : new ArrayList<>(adjacency);
+    }
+
+    public void addEdge(Edge edge) {
+        Map<String, Object> outEntry = entry(edge, edge.inVertex(), Direction.OUT);
+        Map<String, Object> inEntry = entry(edge, edge.outVertex(), Direction.IN);
+        update(edge.outVertex(), adjacency -> adjacency.add(outEntry));
+        update(edge.inVertex(), adjacency -> adjacency.add(inEntry));
+    }
+
+    public void removeEdge(Edge edge) {
+        update(edge.outVertex(), adjacency -> remove(adjacency, edge, edge.inVertex(), Direction.OUT));
+        update(edge.inVertex(), adjacency -> remove(adjacency, edge, edge.outVertex(), Direction.IN));
+    }
+
+    /**
+     * The neighbours listed in an array, or null when the vertex has no array and its edges have to be searched for.
+     */
+    public static List<Vertex> vertices(Vertex vertex, List<Map<String, Object>> adjacency, Direction direction,
+                                        String[] edgeLabels, ElasticGraph graph) {
+        if (adjacency == null) return null;
+        List<String> labels = edgeLabels == null || edgeLabels.length == 0 ? null : Arrays.asList(edgeLabels);
+        List<Vertex> vertices = new ArrayList<>();
+        for (Map<String, Object> entry : adjacency) {
+            Direction entryDirection = Direction.valueOf(entry.get(DIRECTION).toString());
+            if (direction != Direction.BOTH && direction != entryDirection) continue;
+            if (labels != null && !labels.contains(entry.get(LABEL).toString())) continue;
+            String id = entry.get(ID).toString();
+            // a self loop is listed in both directions but is walked through once, like its edge
+            if (direction == Direction.BOTH && entryDirection == Direction.IN && id.equals(vertex.id().toString())) continue;
+            Direction vertexDirection = entryDirection == Direction.OUT ? Direction.IN : Direction.OUT;
+            vertices.add(graph.getQueryHandler().vertex(id, entry.get(VERTEX_LABEL).toString(), null, vertexDirection));
+        }
+        return vertices;
+    }
+
+    // the lock isn't held while writing, since a flush reads the arrays back through the vertices' fields
+    private void update(Vertex vertex, Consumer<List<Map<String, Object>>> edit) {
+        String id = vertex.id().toString();
+        if (!isKnown(id)) {
+            List<Map<String, Object>> fetched = fetch(vertex);
+            synchronized (this) {
+                if (!known.containsKey(id)) known.put(id, fetched);
+            }
+        }
+
+        List<Map<String, Object>> written;
+        synchronized (this) {
+            List<Map<String, Object>> adjacency = known.get(id);
+            if (adjacency == null) return;
+            edit.accept(adjacency);
+            // a supernode's neighbours are searched for among its edges from now on
+            if (adjacency.size() > maxDegree) adjacency = null;
+            known.put(id, adjacency);
+            written = adjacency == null ? null : new ArrayList<>(adjacency);
+        }
+        elasticMutations.updateFields(vertex, Collections.singletonMap(FIELD, written), indexName, null);
+    }
+
+    private List<Map<String, Object>> fetch(Vertex vertex) {
+        elasticMutations.flush();
+        GetResponse response = client.prepareGet(indexName, vertex.label(), vertex.id().toString())
+                .setFetchSource(FIELD, null).execute().actionGet();
+        if (!response.isExists() || response.getSource() == null) return null;
+        Object adjacency = response.getSource().get(FIELD);
+        return adjacency instanceof List ? new ArrayList<>((List<Map<String, Object>>) adjacency) : null;
+    }
+
+    private static Map<String, Object> entry(Edge edge, Vertex neighbour, Direction direction) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put(LABEL, edge.label());
+        entry.put(ID, neighbour.id().toString());
+        entry.put(VERTEX_LABEL, neighbour.label());
+        entry.put(DIRECTION, direction.name());
+        return entry;
+    }
+
+    private static void remove(List<Map<String, Object>> adjacency, Edge edge, Vertex neighbour, Direction direction) {
+        Iterator<Map<String, Object>> iterator = adjacency.iterator();
+        while (iterator.hasNext()) {
+            Map<String, Object> entry = iterator.next();
+            if (entry.get(LABEL).equals(edge.label()) && entry.get(ID).toString().equals(neighbour.id().toString())
+                    && entry.get(DIRECTION).equals(direction.name())) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+}
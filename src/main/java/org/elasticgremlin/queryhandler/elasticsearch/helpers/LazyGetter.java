@@ -1,8 +1,12 @@
 package org.elasticgremlin.queryhandler.elasticsearch.helpers;
 
-import org.elasticgremlin.structure.BaseVertex;
+import org.elasticgremlin.structure.*;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.get.*;
+import org.elasticsearch.action.support.PlainActionFuture;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+import org.javatuples.Pair;
 
 import java.util.*;
 
@@ -11,25 +15,27 @@ public class LazyGetter {
     private static final int MAX_LAZY_GET = 1000;
     private Client client;
     private TimingAccessor timing;
+    private ElasticMutations elasticMutations;
     private boolean executed = false;
     private MultiGetRequest multiGetRequest = new MultiGetRequest();
     private HashMap<String, List<BaseVertex>> idToVertices = new HashMap();
     private List<BaseVertex> vertices = new ArrayList<>();
 
-    public LazyGetter(Client client, TimingAccessor timing) {
+    public LazyGetter(Client client, TimingAccessor timing, ElasticMutations elasticMutations) {
         this.client = client;
         this.timing = timing;
+        this.elasticMutations = elasticMutations;
     }
 
     public Boolean canRegister() {
         return !executed && multiGetRequest.getItems().size() < MAX_LAZY_GET;
     }
 
-    public void register(BaseVertex v, String indexName) {
-        multiGetRequest.add(indexName, null, v.id().toString()); //TODO: add routing..?
-
+    public void register(BaseVertex v, String label, String indexName) {
         List<BaseVertex> vertices = idToVertices.get(v.id().toString());
         if (vertices == null) {
+            // an id reached through several edges is fetched once
+            multiGetRequest.add(indexName, label, v.id().toString());
             vertices = new ArrayList();
             idToVertices.put(v.id().toString(), vertices);
         }
@@ -37,28 +43,118 @@ public class LazyGetter {
 
         this.vertices.add(v);
         v.setSiblings(this.vertices);
+        // a full batch isn't sent here: the step that registered the vertices may still narrow their properties, and
+        // sending would flush the pending writes of a step that only reads
+    }
+
+    /**
+     * Whether the documents were already requested, after which the requested source can't be narrowed any more.
+     */
+    public boolean isExecuted() {
+        return executed;
     }
 
     public void execute() {
         if (executed) return;
+        elasticMutations.flush();
+        ElementCache graphCache = vertices.isEmpty() ? null : ((ElasticGraph) vertices.get(0).graph()).getElementCache();
+        ElementCache cache = graphCache != null && graphCache.isEnabled() ? graphCache : null;
+        int revision = elasticMutations.getRevision();
+        MultiGetChunker chunker = vertices.isEmpty() ? null : ((ElasticGraph) vertices.get(0).graph()).getMultiGetChunker();
+
+        List<Chunk> chunks = new ArrayList<>();
+        Set<String> fullSourceIds = new HashSet<>();
+        int chunkSize = chunker == null ? MAX_LAZY_GET : chunker.chunkSize();
+        MultiGetRequest request = new MultiGetRequest();
+        for (MultiGetRequest.Item item : multiGetRequest.getItems()) {
+            List<BaseVertex> itemVertices = idToVertices.get(item.id());
+            if (cache != null) {
+                Pair<String, Map<String, Object>> cached = cache.get(Arrays.asList(item.index(), item.id()), revision);
+                if (cached != null) {
+                    itemVertices.forEach(vertex -> vertex.applyLazyFields(cached.getValue0(), cached.getValue1()));
+                    continue;
+                }
+            }
+            FetchSourceContext fetchSourceContext = fetchSourceContext(itemVertices);
+            if (fetchSourceContext != null) item.fetchSourceContext(fetchSourceContext);
+            else fullSourceIds.add(item.id());
+            request.add(item);
+            if (request.getItems().size() >= chunkSize) {
+                chunks.add(new Chunk(request, chunker));
+                request = new MultiGetRequest();
+            }
+        }
+        if (!request.getItems().isEmpty()) chunks.add(new Chunk(request, chunker));
 
         timing.start("lazyMultiGet");
-        MultiGetResponse multiGetItemResponses = client.multiGet(multiGetRequest).actionGet();
-        timing.stop("lazyMultiGet");
+        List<MultiGetResponse> responses = new ArrayList<>();
+        try {
+            chunks.forEach(chunk -> responses.add(chunk.future.actionGet()));
+        }
+        finally {
+            timing.stop("lazyMultiGet");
+        }
 
-        multiGetItemResponses.forEach(response -> {
+        responses.forEach(multiGetItemResponses -> multiGetItemResponses.forEach(response -> {
             if (response.isFailed() || !response.getResponse().isExists()) {
                 System.out.println(response.getFailure().getMessage());
                 return;
             }
             List<BaseVertex> vertices = idToVertices.get(response.getId());
             if (vertices == null) return;
-            vertices.forEach(vertex -> vertex.applyLazyFields(response));
-        });
+            Map<String, Object> source = response.getResponse().getSource();
+            vertices.forEach(vertex -> vertex.applyLazyFields(response.getType(), source));
+            // only whole documents are cached, a projected one can't answer other keys
+            if (cache != null && fullSourceIds.contains(response.getId()))
+                cache.put(Arrays.asList(response.getIndex(), response.getId()), Pair.with(response.getType(), source),
+                        ElementCache.sizeOf(source), revision);
+        }));
 
         executed = true;
         multiGetRequest = null;
         idToVertices = null;
         client = null;
     }
+
+    private FetchSourceContext fetchSourceContext(List<BaseVertex> vertices) {
+        Set<String> keys = new HashSet<>();
+        for (BaseVertex vertex : vertices) {
+            if (vertex.getLoadedKeys() == null) return null;
+            keys.addAll(vertex.getLoadedKeys());
+        }
+        if (keys.isEmpty()) return new FetchSourceContext(false);
+        return new FetchSourceContext(keys.toArray(new String[keys.size()]));
+    }
+
+    private class Chunk implements ActionListener<MultiGetResponse> {
+        private final PlainActionFuture<MultiGetResponse> future = PlainActionFuture.newFuture();
+        private final MultiGetChunker chunker;
+        private final int docs;
+        private final long start;
+
+        // the chunks are in flight together, so each one is timed from its own send to its own response
+        public Chunk(MultiGetRequest request, MultiGetChunker chunker) {
+            this.chunker = chunker;
+            this.docs = request.getItems().size();
+            this.start = System.nanoTime();
+            client.multiGet(request, this);
+        }
+
+        @Override
+        public void onResponse(MultiGetResponse response) {
+            if (chunker != null) {
+                long bytes = 0;
+                for (MultiGetItemResponse item : response.getResponses())
+                    if (!item.isFailed() && item.getResponse().getSourceAsBytesRef() != null)
+                        bytes += item.getResponse().getSourceAsBytesRef().length();
+                chunker.record(docs, bytes, System.nanoTime() - start);
+            }
+            future.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            future.onFailure(e);
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.commons.configuration.Configuration;
+
+/**
+ * Sizes the chunks a lazy multi-get is split into, from the latency and document size observed on the previous ones.
+ * The chunks are sent together, so a large batch is fetched in parallel by several shards' nodes.
+ */
+public class MultiGetChunker {
+
+    private static final int MIN_CHUNK = 10;
+    private static final int MAX_CHUNK = 1000;
+    private static final int INITIAL_CHUNK = 100;
+    // the weight of the latest chunk in the moving averages
+    private static final double ALPHA = 0.2;
+
+    private final long targetNanos;
+    private final long maxChunkBytes;
+    private double nanosPerDoc = -1;
+    private double bytesPerDoc = -1;
+
+    public MultiGetChunker(Configuration configuration) {
+        this(configuration.getLong("elasticsearch.multiGet.targetLatencyMs", 20) * 1000000,
+                configuration.getLong("elasticsearch.multiGet.maxChunkMb", 2) * 1024 * 1024);
+    }
+
+    public MultiGetChunker(long targetNanos, long maxChunkBytes) {
+        this.targetNanos = targetNanos;
+        this.maxChunkBytes = maxChunkBytes;
+    }
+
+    public synchronized int chunkSize() {
+        if (nanosPerDoc < 0) return INITIAL_CHUNK;
+        double size = Math.min(targetNanos / Math.max(nanosPerDoc, 1), maxChunkBytes / Math.max(bytesPerDoc, 1));
+        return (int) Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size));
+    }
+
+    public synchronized void record(int docs, long bytes, long nanos) {
+        if (docs == 0) return;
+        if (nanosPerDoc < 0) {
+            nanosPerDoc = (double) nanos / docs;
+            bytesPerDoc = (double) bytes / docs;
+            return;
+        }
+        nanosPerDoc = ALPHA * nanos / docs + (1 - ALPHA) * nanosPerDoc;
+        bytesPerDoc = ALPHA * bytes / docs + (1 - ALPHA) * bytesPerDoc;
+    }
+}
@@ -0,0 +1,168 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.tinkerpop.gremlin.structure.Element;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.*;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.query.*;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Scans an index with one scroll per shard, consumed by a thread pool. The pages are converted to elements on the
+ * consuming thread, in no particular order. An iterator that isn't read for as long as the scroll keep-alive is taken
+ * as abandoned and closes itself, which stops its threads.
+ */
+public class ParallelScanIterator<E extends Element> implements Iterator<E>, AutoCloseable {
+
+    private static final Object SHARD_DONE = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 1000;
+
+    private final Client client;
+    private final ScrollSettings scroll;
+    private final TimingAccessor timing;
+    private final Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc;
+    private final String[] sourceIncludes;
+    private final BlockingQueue<Object> pages;
+    private final ExecutorService executor;
+    private int runningShards;
+    private Iterator<? extends E> hits = Collections.emptyIterator();
+    private volatile boolean closed = false;
+    private volatile long lastRead = System.currentTimeMillis();
+
+    /**
+     * @param sourceIncludes the fields fetched from the documents, null for all of them
+     */
+    public ParallelScanIterator(FilterBuilder filter, String[] sourceIncludes, ScrollSettings scroll, Client client,
+                                Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc,
+                                Boolean refresh, TimingAccessor timing, String index) {
+        this.client = client;
+        this.scroll = scroll;
+        this.timing = timing;
+        this.convertFunc = convertFunc;
+        this.sourceIncludes = sourceIncludes;
+
+        if (refresh) client.admin().indices().prepareRefresh(index).execute().actionGet();
+        int shards = ElasticHelper.shards(client, index);
+        int threads = Math.min(scroll.getParallelism(), shards);
+        this.runningShards = shards;
+        // a couple of pages per thread keep the scrolls busy without buffering the whole index
+        this.pages = new ArrayBlockingQueue<>(threads * 2 + shards);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "elastic-gremlin-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int shard = 0; shard < shards; shard++) {
+            int finalShard = shard;
+            executor.submit(() -> scan(filter, index, finalShard));
+        }
+        executor.shutdown();
+    }
+
+    private void scan(FilterBuilder filter, String index, int shard) {
+        String scrollId = null;
+        try {
+            SearchRequestBuilder searchRequest = client.prepareSearch(index)
+                    .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
+                    .setPreference("_shards:" + shard)
+                    .setSearchType(SearchType.SCAN)
+                    .setScroll(scroll.getKeepAlive())
+                    .setSize(scroll.getSize());
+            if (sourceIncludes != null) {
+                if (sourceIncludes.length == 0) searchRequest.setFetchSource(false);
+                else searchRequest.setFetchSource(sourceIncludes, null);
+            }
+            SearchResponse response = searchRequest.execute().actionGet();
+            scrollId = response.getScrollId();
+            if (scrollId != null) scroll.opened();
+
+            while (!closed && scrollId != null) {
+                response = client.prepareSearchScroll(scrollId).setScroll(scroll.getKeepAlive()).execute().actionGet();
+                if (response.getScrollId() != null) scrollId = response.getScrollId();
+                SearchHit[] shardHits = response.getHits().getHits();
+                if (shardHits.length == 0) break;
+                put(shardHits);
+            }
+            put(SHARD_DONE);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable t) {
+            try {
+                put(t);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        finally {
+            if (scrollId != null) {
+                client.prepareClearScroll().addScrollId(scrollId).execute();
+                scroll.cleared();
+            }
+        }
+    }
+
+    // waits for room in the queue until the iterator is closed, or closes it when nothing was read for a keep-alive
+    private void put(Object page) throws InterruptedException {
+        while (!closed) {
+            if (pages.offer(page, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return;
+            if (System.currentTimeMillis() - lastRead > scroll.getKeepAlive().millis()) close();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (hits.hasNext()) return true;
+        if (closed) return false;
+
+        timing.start("parallelScan");
+        try {
+            while (!hits.hasNext()) {
+                if (runningShards == 0) {
+                    close();
+                    return false;
+                }
+                Object page = pages.take();
+                lastRead = System.currentTimeMillis();
+                if (page == SHARD_DONE) runningShards--;
+                else if (page instanceof Throwable) {
+                    close();
+                    throw new ElasticsearchException("failed to scan a shard", (Throwable) page);
+                }
+                else hits = convertFunc.apply(Arrays.asList((SearchHit[]) page).iterator());
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new ElasticsearchException("interrupted while waiting for a scan page", e);
+        }
+        finally {
+            timing.stop("parallelScan");
+        }
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return hits.next();
+    }
+
+    /**
+     * Stops the scrolls that are still running, each of them clears its own scroll context.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        executor.shutdownNow();
+        pages.clear();
+    }
+}
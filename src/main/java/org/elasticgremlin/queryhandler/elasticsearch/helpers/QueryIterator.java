@@ -1,62 +1,235 @@
 package org.elasticgremlin.queryhandler.elasticsearch.helpers;
 
+import org.apache.tinkerpop.gremlin.process.traversal.Order;
 import org.apache.tinkerpop.gremlin.structure.*;
-import org.elasticsearch.action.search.SearchResponse;
+import org.elasticgremlin.queryhandler.Predicates;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.*;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.*;
+import org.javatuples.Pair;
 
 import java.util.*;
 import java.util.function.Function;
 
-public class QueryIterator<E extends Element> implements Iterator<E> {
+public class QueryIterator<E extends Element> implements Iterator<E>, AutoCloseable {
 
     private SearchResponse scrollResponse;
+    private String scrollId;
+    private final ScrollSettings scroll;
     private long allowedRemaining;
+    private long hitsRemaining;
     private final Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc;
     private TimingAccessor timing;
     private Client client;
     private Iterator<? extends E> hits;
+    private Prefetcher prefetcher;
 
-    public QueryIterator(FilterBuilder filter, int startFrom, int scrollSize, long maxSize, Client client,
+    public QueryIterator(FilterBuilder filter, Predicates predicates, String[] sourceIncludes, ScrollSettings scroll, Client client,
+                         Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc,
+                         Boolean refresh, TimingAccessor timing, String... indices) {
+        this(filter, (int) predicates.limitLow, scroll, predicates.limitHigh - predicates.limitLow, predicates.orders, sourceIncludes,
+                client, convertFunc, refresh, timing, indices);
+    }
+
+    public QueryIterator(FilterBuilder filter, int startFrom, ScrollSettings scroll, long maxSize, Client client,
+                         Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc,
+                         Boolean refresh, TimingAccessor timing, String... indices) {
+        this(filter, startFrom, scroll, maxSize, Collections.emptyList(), null, client, convertFunc, refresh, timing, indices);
+    }
+
+    public QueryIterator(FilterBuilder filter, int startFrom, ScrollSettings scroll, long maxSize, List<Pair<String, Order>> orders,
+                         String[] sourceIncludes, Client client,
+                         Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc,
+                         Boolean refresh, TimingAccessor timing, String... indices) {
+        this(filter, startFrom, scroll, maxSize, orders, sourceIncludes, null, null, client, convertFunc, refresh, timing, indices);
+    }
+
+    public QueryIterator(FilterBuilder filter, int startFrom, ScrollSettings scroll, long maxSize, List<Pair<String, Order>> orders,
+                         String[] sourceIncludes, String preference, String[] routing, Client client,
                          Function<Iterator<SearchHit>, Iterator<? extends E>> convertFunc,
                          Boolean refresh, TimingAccessor timing, String... indices) {
         this.client = client;
+        this.scroll = scroll;
         this.allowedRemaining = maxSize;
         this.convertFunc = convertFunc;
         this.timing = timing;
 
         if (refresh) client.admin().indices().prepareRefresh(indices).execute().actionGet();
-        this.timing.start("scroll");
-        scrollResponse = client.prepareSearch(indices)
+        SearchRequestBuilder searchRequest = client.prepareSearch(indices)
                 .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), filter))
-                .setFrom(startFrom)
-                .setScroll(new TimeValue(60000))
-                .setSize(maxSize < scrollSize ? (int) maxSize : scrollSize)
-                .execute().actionGet();
+                .setFrom(startFrom);
+        if (preference != null) searchRequest.setPreference(preference);
+        if (routing != null) searchRequest.setRouting(routing);
+        // properties missing from some of the types are treated as missing values rather than failing the search
+        orders.forEach(order -> searchRequest.addSort(SortBuilders.fieldSort(order.getValue0()).ignoreUnmapped(true)
+                .order(order.getValue1().equals(Order.decr) ? SortOrder.DESC : SortOrder.ASC)));
+        if (sourceIncludes != null) {
+            if (sourceIncludes.length == 0) searchRequest.setFetchSource(false);
+            else searchRequest.setFetchSource(sourceIncludes, null);
+        }
+        // a window that fits in one page is fetched with a plain search, without opening a scroll context
+        if (maxSize <= scroll.getSize()) searchRequest.setSize((int) maxSize);
+        else {
+            searchRequest.setScroll(scroll.getKeepAlive()).setSize(scroll.getSize());
+            // an unsorted scan skips scoring and sorting on the shards, each of them returns up to a page per scroll
+            if (orders.isEmpty() && startFrom == 0) searchRequest.setSearchType(SearchType.SCAN);
+        }
+
+        this.timing.start("scroll");
+        scrollResponse = searchRequest.execute().actionGet();
         this.timing.stop("scroll");
+        setScrollId(scrollResponse.getScrollId());
 
+        hitsRemaining = scrollResponse.getHits().getTotalHits() - startFrom - scrollResponse.getHits().getHits().length;
         hits = convertFunc.apply(scrollResponse.getHits().iterator());
+        if (scrollId != null && hitsRemaining > 0 && scroll.getPrefetch() > 0)
+            prefetcher = new Prefetcher(Math.min(hitsRemaining, allowedRemaining - scrollResponse.getHits().getHits().length));
     }
 
     @Override
     public boolean hasNext() {
-        if(allowedRemaining <= 0) return false;
+        if(allowedRemaining <= 0) {
+            close();
+            return false;
+        }
         if(hits.hasNext()) return true;
+        if(scrollId == null || hitsRemaining <= 0) {
+            close();
+            return false;
+        }
 
         timing.start("scroll");
-        scrollResponse = client.prepareSearchScroll(scrollResponse.getScrollId()).setScroll(new TimeValue(600000)).execute().actionGet();
+        scrollResponse = prefetcher != null ? prefetcher.take() :
+                client.prepareSearchScroll(scrollId).setScroll(scroll.getKeepAlive()).execute().actionGet();
         timing.stop("scroll");
+        if (scrollResponse == null) {
+            close();
+            return false;
+        }
+        setScrollId(scrollResponse.getScrollId());
 
+        hitsRemaining -= scrollResponse.getHits().getHits().length;
+        if (scrollResponse.getHits().getHits().length == 0) hitsRemaining = 0;
         hits = convertFunc.apply(scrollResponse.getHits().iterator());
 
-        return hits.hasNext();
+        if (hits.hasNext()) return true;
+        close();
+        return false;
     }
 
     @Override
     public E next() {
         allowedRemaining--;
-        return hits.next();
+        E next = hits.next();
+        // a caller that takes exactly the hits it asked for never calls hasNext() again
+        if (allowedRemaining <= 0 || (!hits.hasNext() && (scrollId == null || hitsRemaining <= 0))) close();
+        return next;
+    }
+
+    /**
+     * Clears the scroll context without waiting for the response. Iterators clear it themselves once they are
+     * exhausted or their last allowed hit is taken, so this is only needed when an iterator is abandoned early.
+     */
+    @Override
+    public void close() {
+        if (prefetcher != null) prefetcher.close();
+        if (scrollId == null) return;
+        client.prepareClearScroll().addScrollId(scrollId).execute();
+        scrollId = null;
+        scroll.cleared();
+    }
+
+    private void setScrollId(String scrollId) {
+        if (this.scrollId == null && scrollId != null) scroll.opened();
+        this.scrollId = scrollId;
+    }
+
+    /**
+     * Requests the next scroll pages in the background while the current one is consumed. Each page is requested when
+     * the previous one arrives, up to the configured number of buffered pages and bytes.
+     */
+    private class Prefetcher implements ActionListener<SearchResponse> {
+        private final Deque<SearchResponse> pages = new ArrayDeque<>();
+        private String nextScrollId = scrollId;
+        private long hitsToFetch;
+        private long bufferedBytes = 0;
+        private boolean fetching = false;
+        private boolean done = false;
+        private Throwable failure;
+
+        public Prefetcher(long hitsToFetch) {
+            this.hitsToFetch = hitsToFetch;
+            synchronized (this) {
+                fetchMore();
+            }
+        }
+
+        private void fetchMore() {
+            if (fetching || done || pages.size() >= scroll.getPrefetch() || bufferedBytes >= scroll.getPrefetchBytes()) return;
+            fetching = true;
+            client.prepareSearchScroll(nextScrollId).setScroll(scroll.getKeepAlive()).execute(this);
+        }
+
+        @Override
+        public synchronized void onResponse(SearchResponse response) {
+            fetching = false;
+            if (done) return;
+            if (response.getScrollId() != null) nextScrollId = response.getScrollId();
+            int length = response.getHits().getHits().length;
+            hitsToFetch -= length;
+            if (length == 0 || hitsToFetch <= 0) done = true;
+            if (length > 0) {
+                pages.add(response);
+                bufferedBytes += size(response);
+            }
+            notifyAll();
+            fetchMore();
+        }
+
+        @Override
+        public synchronized void onFailure(Throwable e) {
+            fetching = false;
+            failure = e;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Returns the next page, or null when there are no more hits.
+         */
+        public synchronized SearchResponse take() {
+            try {
+                while (pages.isEmpty() && !done) {
+                    fetchMore();
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ElasticsearchException("interrupted while waiting for a scroll page", e);
+            }
+            if (failure != null) throw new ElasticsearchException("failed to fetch a scroll page", failure);
+            SearchResponse page = pages.poll();
+            if (page != null) bufferedBytes -= size(page);
+            fetchMore();
+            return page;
+        }
+
+        public synchronized void close() {
+            done = true;
+            pages.clear();
+            bufferedBytes = 0;
+        }
+
+        private long size(SearchResponse response) {
+            long size = 0;
+            for (SearchHit hit : response.getHits().getHits())
+                if (hit.sourceRef() != null) size += hit.sourceRef().length();
+            return size;
+        }
     }
 }
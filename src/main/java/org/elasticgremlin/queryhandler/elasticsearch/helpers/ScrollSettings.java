@@ -0,0 +1,83 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.commons.configuration.Configuration;
+import org.elasticgremlin.queryhandler.Predicates;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScrollSettings {
+
+    private final int size;
+    private final TimeValue keepAlive;
+    private final int prefetch;
+    private final long prefetchBytes;
+    private final int parallelism;
+    private final AtomicInteger openContexts = new AtomicInteger();
+
+    public ScrollSettings(Configuration configuration, int defaultSize) {
+        this(configuration.getInt("elasticsearch.scrollSize", defaultSize),
+                TimeValue.timeValueMillis(configuration.getLong("elasticsearch.scrollKeepAlive", 60000)),
+                configuration.getInt("elasticsearch.scrollPrefetch", 0),
+                configuration.getLong("elasticsearch.scrollPrefetchMb", 50) * 1024 * 1024,
+                configuration.getInt("elasticsearch.scanParallelism", 1));
+    }
+
+    public ScrollSettings(int size, TimeValue keepAlive, int prefetch, long prefetchBytes, int parallelism) {
+        this.size = size;
+        this.keepAlive = keepAlive;
+        this.prefetch = prefetch;
+        this.prefetchBytes = prefetchBytes;
+        this.parallelism = parallelism;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public TimeValue getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * The number of scroll pages an iterator requests ahead of the one it's consuming, 0 disables prefetching.
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public long getPrefetchBytes() {
+        return prefetchBytes;
+    }
+
+    /**
+     * The number of shards g.V() and g.E() scan concurrently, 1 scans the index through a single scroll.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Whether a search reads the whole index, in which case it is scanned with one scroll per shard when the
+     * parallelism is above 1.
+     */
+    public boolean scansInParallel(Predicates predicates) {
+        return parallelism > 1 && predicates.hasContainers.isEmpty() && predicates.orders.isEmpty() &&
+                predicates.limitLow == 0 && predicates.limitHigh == Long.MAX_VALUE;
+    }
+
+    /**
+     * The scroll contexts opened by this graph's iterators that weren't cleared yet.
+     */
+    public int getOpenContexts() {
+        return openContexts.get();
+    }
+
+    void opened() {
+        openContexts.incrementAndGet();
+    }
+
+    void cleared() {
+        openContexts.decrementAndGet();
+    }
+}
@@ -10,23 +10,23 @@ public class TimingAccessor {
     private HashMap<String, Timer> timers = new HashMap<>();
     static DecimalFormat twoDForm = new DecimalFormat("#.##");
 
-    public Timer timer(String name) {
+    public synchronized Timer timer(String name) {
         if (timers.containsKey(name)) return timers.get(name);
         Timer timer = new Timer(name);
         timers.put(name, timer);
         return timer;
     }
 
-    public void start(String name) {
+    public synchronized void start(String name) {
         timer(name).start();
     }
 
 
-    public void stop(String name) {
+    public synchronized void stop(String name) {
         timer(name).stop();
     }
 
-    public void print() {
+    public synchronized void print() {
         timers.values().forEach((timer) -> timer.PrintStats());
     }
 
@@ -60,6 +60,10 @@ public class TimingAccessor {
             numOfRuns++;
         }
 
+        public int getRuns() {
+            return (int) numOfRuns;
+        }
+
         public void PrintStats() {
             if (numOfRuns > 0) {
                 float time = sw.getTime() / 1000f;
@@ -0,0 +1,187 @@
+package org.elasticgremlin.queryhandler.elasticsearch.helpers;
+
+import org.apache.tinkerpop.gremlin.process.traversal.Contains;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.Predicates;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The elements this graph wrote since their indices were last refreshed, so that searches see the graph's own writes
+ * without refreshing first. A hit of an element in the overlay is dropped, and the element itself is added to the
+ * results when it still passes the search's predicates. The overlay is emptied by commit() and whenever it grows past
+ * its maximum size, both of which refresh the indices it covers.
+ */
+public class WriteOverlay {
+
+    private final int maxSize;
+    // index -> label/id -> the written element, or null once it was deleted
+    private final Map<String, Map<String, Element>> indices = new HashMap<>();
+    private int size = 0;
+
+    public WriteOverlay(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void written(String index, Element element) {
+        put(index, element, element);
+    }
+
+    public synchronized void deleted(String index, Element element) {
+        put(index, element, null);
+    }
+
+    private void put(String index, Element element, Element value) {
+        Map<String, Element> elements = indices.computeIfAbsent(index, name -> new HashMap<>());
+        boolean known = elements.containsKey(key(element));
+        elements.put(key(element), value);
+        if (!known) size++;
+    }
+
+    public synchronized boolean isFull() {
+        return size > maxSize;
+    }
+
+    public synchronized Set<String> getIndices() {
+        return new HashSet<>(indices.keySet());
+    }
+
+    public synchronized void clear() {
+        indices.clear();
+        size = 0;
+    }
+
+    /**
+     * A snapshot of the elements written to the given indices, taken before their search is sent.
+     */
+    public synchronized View view(String... indices) {
+        Map<String, Element> elements = new HashMap<>();
+        for (String index : indices) {
+            Map<String, Element> indexElements = this.indices.get(index);
+            if (indexElements != null) elements.putAll(indexElements);
+        }
+        return new View(elements);
+    }
+
+    /**
+     * Whether the search's results can be merged with the overlay: its predicates are tested against the elements in
+     * memory, and the elements are added after the hits, which only keeps the results right when they are unordered and
+     * start from the first one.
+     */
+    public static boolean canMerge(Predicates predicates) {
+        if (!predicates.orders.isEmpty() || predicates.limitLow > 0) return false;
+        for (HasContainer hasContainer : predicates.hasContainers) {
+            String key = hasContainer.getKey();
+            // the fields kept on the documents besides the properties, like the copied vertex properties, aren't
+            // visible on the elements
+            if (key.startsWith("~") && !key.equals(T.id.getAccessor()) && !key.equals(T.label.getAccessor())) return false;
+        }
+        return true;
+    }
+
+    public static boolean test(List<HasContainer> hasContainers, Element element) {
+        for (HasContainer hasContainer : hasContainers) {
+            // has(key) and hasNot(key) are within and without a null value, which only check the property's presence
+            if (hasContainer.getValue() == null && hasContainer.getBiPredicate() instanceof Contains) {
+                boolean present = element.property(hasContainer.getKey()).isPresent();
+                if (present != (hasContainer.getBiPredicate() == Contains.within)) return false;
+            }
+            else if (!hasContainer.test(element)) return false;
+        }
+        return true;
+    }
+
+    private static String key(Element element) {
+        return element.label() + "/" + element.id();
+    }
+
+    public static class View {
+        private final Map<String, Element> elements;
+
+        private View(Map<String, Element> elements) {
+            this.elements = elements;
+        }
+
+        public boolean isEmpty() {
+            return elements.isEmpty();
+        }
+
+        /**
+         * The number of hits the overlay may drop, by which a limited search has to be widened.
+         */
+        public int size() {
+            return elements.size();
+        }
+
+        /**
+         * The hits that aren't in the overlay, followed by the elements in the overlay of the given class that pass
+         * {@code matches}, up to {@code limit} of them.
+         */
+        public <E extends Element> Iterator<E> merge(Iterator<? extends E> hits, Class<E> elementClass, Predicate<E> matches, long limit) {
+            return new MergedIterator<>(hits, elementClass, matches, limit);
+        }
+
+        private class MergedIterator<E extends Element> implements Iterator<E>, AutoCloseable {
+            private final Iterator<? extends E> hits;
+            private final Class<E> elementClass;
+            private final Predicate<E> matches;
+            private long remaining;
+            private Iterator<Element> written = null;
+            private E next = null;
+
+            private MergedIterator(Iterator<? extends E> hits, Class<E> elementClass, Predicate<E> matches, long limit) {
+                this.hits = hits;
+                this.elementClass = elementClass;
+                this.matches = matches;
+                this.remaining = limit;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) return true;
+                if (remaining <= 0) {
+                    close();
+                    return false;
+                }
+                while (hits.hasNext()) {
+                    E hit = hits.next();
+                    if (elements.containsKey(key(hit))) continue;
+                    next = hit;
+                    return true;
+                }
+                if (written == null) written = elements.values().iterator();
+                while (written.hasNext()) {
+                    Element element = written.next();
+                    if (elementClass.isInstance(element) && matches.test(elementClass.cast(element))) {
+                        next = elementClass.cast(element);
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                E element = next;
+                next = null;
+                if (--remaining <= 0) close();
+                return element;
+            }
+
+            @Override
+            public void close() {
+                if (hits instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) hits).close();
+                    }
+                    catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,15 +2,21 @@ package org.elasticgremlin.queryhandler.elasticsearch.stardoc;
 
 import org.apache.tinkerpop.gremlin.structure.Direction;
 
-import java.lang.Object;import java.lang.Override;import java.lang.String;import java.util.Map;
+import java.lang.Object;import java.lang.Override;import java.lang.String;import java.util.*;
 
 public class BasicEdgeMapping implements EdgeMapping {
     private final String edgeLabel;
     private final String externalVertexLabel;
     private final Direction direction;
     private final String externalVertexField;
+    private final boolean multiValued;
 
     public BasicEdgeMapping(String edgeLabel, String externalVertexLabel, Direction direction, String externalVertexField) {
+        this(edgeLabel, externalVertexLabel, direction, externalVertexField, false);
+    }
+
+    public BasicEdgeMapping(String edgeLabel, String externalVertexLabel, Direction direction, String externalVertexField, boolean multiValued) {
+        this.multiValued = multiValued;
         this.edgeLabel = edgeLabel;
         this.externalVertexLabel = externalVertexLabel;
         this.direction = direction;
@@ -46,4 +52,18 @@ public class BasicEdgeMapping implements EdgeMapping {
     public Object getExternalVertexId(Map<String, Object> entries) {
         return entries.get(externalVertexField);
     }
+
+    @Override
+    public Object[] getExternalVertexIds(Map<String, Object> entries) {
+        Object value = entries.get(externalVertexField);
+        if (value == null) return new Object[0];
+        if (value instanceof Collection) return ((Collection) value).toArray();
+        if (value instanceof Object[]) return (Object[]) value;
+        return new Object[]{value};
+    }
+
+    @Override
+    public boolean isMultiValued() {
+        return multiValued;
+    }
 }
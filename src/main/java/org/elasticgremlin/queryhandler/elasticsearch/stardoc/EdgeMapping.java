@@ -16,4 +16,19 @@ public interface EdgeMapping {
     public String getExternalVertexLabel() ;
 
     public Object getExternalVertexId(Map<String, Object> entries);
+
+    /**
+     * The ids of all the external vertices a document points at, one inner edge each.
+     */
+    public default Object[] getExternalVertexIds(Map<String, Object> entries) {
+        Object id = getExternalVertexId(entries);
+        return id == null ? new Object[0] : new Object[]{id};
+    }
+
+    /**
+     * Whether the external vertex field holds an array of ids, to which new edges are added rather than replacing it.
+     */
+    public default boolean isMultiValued() {
+        return false;
+    }
 }
@@ -34,6 +34,13 @@ public class InnerEdge extends BaseEdge {
         throw new NotImplementedException();
     }
 
+    @Override
+    public EdgeFactory factory() {
+        EdgeMapping mapping = this.mapping;
+        ElasticGraph graph = this.graph;
+        return (id, label, keyValues, outV, inV) -> new InnerEdge(id, mapping, outV, inV, keyValues, graph);
+    }
+
     public EdgeMapping getMapping() {
         return mapping;
     }
@@ -12,33 +12,35 @@ import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.SearchHit;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class StarHandler implements VertexHandler, EdgeHandler {
 
     private ElasticGraph graph;
     private Client client;
     private ElasticMutations elasticMutations;
-    private final int scrollSize;
+    private final ScrollSettings scroll;
     private final boolean refresh;
     private TimingAccessor timing;
     private EdgeMapping[] edgeMappings;
     private Map<Direction, LazyGetter> lazyGetters;
     private LazyGetter defaultLazyGetter;
+    private final IdentityMap<BaseVertex> identityMap = new IdentityMap<>();
 
     protected String[] indices;
 
     public StarHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
-                       int scrollSize, boolean refresh, TimingAccessor timing, EdgeMapping... edgeMappings) {
-        this(graph, client, elasticMutations, new String[] {indexName}, scrollSize, refresh, timing, edgeMappings);
+                       ScrollSettings scroll, boolean refresh, TimingAccessor timing, EdgeMapping... edgeMappings) {
+        this(graph, client, elasticMutations, new String[] {indexName}, scroll, refresh, timing, edgeMappings);
     }
 
     public StarHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String[] indices,
-                       int scrollSize, boolean refresh, TimingAccessor timing, EdgeMapping... edgeMappings) {
+                       ScrollSettings scroll, boolean refresh, TimingAccessor timing, EdgeMapping... edgeMappings) {
         this.graph = graph;
         this.client = client;
         this.elasticMutations = elasticMutations;
         this.indices = indices;
-        this.scrollSize = scrollSize;
+        this.scroll = scroll;
         this.refresh = refresh;
         this.timing = timing;
         this.edgeMappings = edgeMappings;
@@ -55,7 +57,7 @@ public class StarHandler implements VertexHandler, EdgeHandler {
     public Iterator<? extends Vertex> vertices(Object[] vertexIds) {
         List<BaseVertex> vertices = new ArrayList<>();
         for (Object id : vertexIds) {
-            StarVertex vertex = new StarVertex(id, null, null, graph, getLazyGetter(), elasticMutations, getDefaultIndex(), edgeMappings);
+            BaseVertex vertex = lazyVertex(id, null, this::getLazyGetter);
             vertex.setSiblings(vertices);
             vertices.add(vertex);
         }
@@ -65,15 +67,25 @@ public class StarHandler implements VertexHandler, EdgeHandler {
     @Override
     public Iterator<? extends Vertex> vertices(Predicates predicates) {
         BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
-        return new QueryIterator<>(boolFilter, 0, scrollSize, predicates.limitHigh - predicates.limitLow,
-                client, this::createVertex, refresh, timing, indices);
+        return new QueryIterator<>(boolFilter, predicates, null, scroll, client, this::createVertex, refresh(), timing, indices);
     }
 
 
 
     @Override
     public BaseVertex vertex(Object vertexId, String vertexLabel, Edge edge, Direction direction) {
-        return new StarVertex(vertexId, vertexLabel, null, graph, getLazyGetter(direction), elasticMutations, getDefaultIndex(), edgeMappings);
+        return lazyVertex(vertexId, vertexLabel, () -> getLazyGetter(direction));
+    }
+
+    // vertices reached again before the next write reuse the instance, its properties and its inner edges
+    private BaseVertex lazyVertex(Object id, String label, Supplier<LazyGetter> lazyGetter) {
+        int revision = elasticMutations.getRevision();
+        BaseVertex vertex = identityMap.get(id.toString(), revision);
+        if (vertex == null) {
+            vertex = new StarVertex(id, label, null, graph, lazyGetter.get(), elasticMutations, getDefaultIndex(), edgeMappings);
+            identityMap.put(id.toString(), vertex, revision);
+        }
+        return vertex;
     }
 
     @Override
@@ -105,51 +117,61 @@ public class StarHandler implements VertexHandler, EdgeHandler {
     public Iterator<Edge> edges(Predicates predicates) {
         Iterator<? extends Vertex> vertices = vertices();
         List<Edge> edges = new ArrayList<>();
-        vertices.forEachRemaining(vertex -> {
-            ((BaseVertex)vertex).edges(Direction.IN, new String[0], predicates).forEachRemaining(edges::add);
-            ((BaseVertex)vertex).edges(Direction.OUT, new String[0], predicates).forEachRemaining(edges::add);
-            ((BaseVertex)vertex).edges(Direction.BOTH, new String[0], predicates).forEachRemaining(edges::add);
-        });
+        vertices.forEachRemaining(vertex -> edges.addAll(((StarVertex) vertex).innerEdges(Direction.BOTH, new String[0], predicates)));
 
-        return edges.iterator();
+        edges.sort(ElasticHelper.createComparator(predicates.orders));
+        int fromIndex = (int) Math.min(predicates.limitLow, edges.size());
+        int toIndex = (int) Math.min(predicates.limitHigh, edges.size());
+        return edges.subList(fromIndex, Math.max(fromIndex, toIndex)).iterator();
     }
 
     @Override
     public Map<Object, Set<Edge>> edges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
-        List<Object> vertexIds = new ArrayList<>();
-        vertices.forEachRemaining(singleVertex -> vertexIds.add(singleVertex.id()));
+        Map<Object, Set<Edge>> results = new HashMap<>();
+        Set<String> vertexIds = new HashSet<>();
+        vertices.forEachRemaining(vertex -> {
+            vertexIds.add(vertex.id().toString());
+            if (vertex instanceof StarVertex)
+                ((StarVertex) vertex).innerEdges(direction, edgeLabels, predicates).forEach(edge -> addResult(results, vertex.id(), edge));
+        });
 
+        // the edges held by other documents are found by the foreign keys pointing at the vertices, a multi valued
+        // key matches if any of its ids does
         BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
         OrFilterBuilder mappingFilter = FilterBuilders.orFilter();
         boolean empty = true;
         for (EdgeMapping mapping : edgeMappings) {
+            if (!direction.equals(Direction.BOTH) && !mapping.getDirection().equals(direction.opposite())) continue;
             if (edgeLabels != null && edgeLabels.length > 0 && !contains(edgeLabels, mapping.getLabel())) continue;
             mappingFilter.add(FilterBuilders.termsFilter(mapping.getExternalVertexField(), vertexIds.toArray()));
             empty = false;
         }
-        if (!empty) {
-            boolFilter.must(mappingFilter);
-        }
+        if (empty || vertexIds.isEmpty()) return results;
+        boolFilter.must(mappingFilter);
 
-        QueryIterator<Vertex> vertexSearchQuery = new QueryIterator<>(boolFilter, 0, scrollSize,
-                predicates.limitHigh - predicates.limitLow, client, this::createVertex, refresh, timing, indices);
+        QueryIterator<Vertex> vertexSearchQuery = new QueryIterator<>(boolFilter, 0, scroll,
+                predicates.limitHigh - predicates.limitLow, client, this::createVertex, refresh(), timing, indices);
 
-
-        Map<Object, Set<Edge>> results = new HashMap<>();
+        Direction containerDirection = direction.equals(Direction.BOTH) ? Direction.BOTH : direction.opposite();
         vertexSearchQuery.forEachRemaining(otherVertex ->
-                otherVertex.edges(direction, edgeLabels).forEachRemaining(edge -> {
-                    Vertex vertex = BaseVertex.vertexToVertex(otherVertex, edge, direction);
-                    Set<Edge> resultEdges = results.get(vertex.id());
-                    if (resultEdges == null) {
-                        resultEdges = new HashSet<>();
-                        results.put(vertex.id(), resultEdges);
-                    }
-                    resultEdges.add(edge);
+                ((StarVertex) otherVertex).innerEdges(containerDirection, edgeLabels, new Predicates()).forEach(edge -> {
+                    Direction externalDirection = ((InnerEdge) edge).getMapping().getDirection().opposite();
+                    Vertex vertex = edge.vertices(externalDirection).next();
+                    if (vertexIds.contains(vertex.id().toString())) addResult(results, vertex.id(), edge);
         }));
 
         return results;
     }
 
+    private static void addResult(Map<Object, Set<Edge>> results, Object vertexId, Edge edge) {
+        Set<Edge> resultEdges = results.get(vertexId);
+        if (resultEdges == null) {
+            resultEdges = new HashSet<>();
+            results.put(vertexId, resultEdges);
+        }
+        resultEdges.add(edge);
+    }
+
     public static boolean contains(String[] edgeLabels, String label) {
         for (String edgeLabel : edgeLabels)
             if (edgeLabel.equals(label)) return true;
@@ -183,11 +205,10 @@ public class StarHandler implements VertexHandler, EdgeHandler {
         });
 
         EdgeMapping mapping = getEdgeMapping(label, out ? Direction.OUT : Direction.IN);
-        containerVertex.addInnerEdge(mapping, edgeId, label, otherVertex, keyValues.toArray());
-
-        Predicates predicates = new Predicates();
-        predicates.hasContainers.add(new HasContainer(T.id.getAccessor(), P.within(edgeId)));
-        return containerVertex.edges(mapping.getDirection(), new String[]{label}, predicates).next();
+        InnerEdge edge = containerVertex.addInnerEdge(mapping, edgeId, label, otherVertex, keyValues.toArray());
+        if (edge == null)
+            throw new IllegalArgumentException("vertex " + containerVertex.id() + " already has a " + label + " edge to " + otherVertex.id());
+        return edge;
     }
 
     private EdgeMapping getEdgeMapping(String label, Direction direction) {
@@ -228,7 +249,7 @@ public class StarHandler implements VertexHandler, EdgeHandler {
 
     private LazyGetter getLazyGetter() {
         if (defaultLazyGetter == null || !defaultLazyGetter.canRegister()) {
-            defaultLazyGetter = new LazyGetter(client, timing);
+            defaultLazyGetter = new LazyGetter(client, timing, elasticMutations);
         }
         return defaultLazyGetter;
     }
@@ -236,7 +257,7 @@ public class StarHandler implements VertexHandler, EdgeHandler {
     private LazyGetter getLazyGetter(Direction direction) {
         LazyGetter lazyGetter = lazyGetters.get(direction);
         if (lazyGetter == null || !lazyGetter.canRegister()) {
-            lazyGetter = new LazyGetter(client, timing);
+            lazyGetter = new LazyGetter(client, timing, elasticMutations);
             lazyGetters.put(direction,
                     lazyGetter);
         }
@@ -245,9 +266,11 @@ public class StarHandler implements VertexHandler, EdgeHandler {
 
     private Iterator<? extends Vertex> createVertex(Iterator<SearchHit> hits) {
         ArrayList<BaseVertex> vertices = new ArrayList<>();
+        int revision = elasticMutations.getRevision();
         hits.forEachRemaining(hit -> {
             StarVertex vertex = new StarVertex(hit.id(), hit.getType(), null, graph, null, elasticMutations, hit.getIndex(), edgeMappings);
             vertex.setFields(hit.getSource());
+            identityMap.put(hit.id(), vertex, revision);
             vertex.setSiblings(vertices);
             vertices.add(vertex);
         });
@@ -260,4 +283,8 @@ public class StarHandler implements VertexHandler, EdgeHandler {
                 mapping.getExternalVertexField().equals(otherMapping.getExternalVertexField()) &&
                 mapping.getExternalVertexLabel().equals(otherMapping.getExternalVertexLabel());
     }
+
+    private boolean refresh() {
+        return (refresh || elasticMutations.getOverlay() != null) && elasticMutations.needsRefresh(indices);
+    }
 }
@@ -5,11 +5,8 @@ import org.apache.tinkerpop.gremlin.structure.*;
 import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 import org.elasticgremlin.queryhandler.Predicates;
 import org.elasticgremlin.structure.*;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.get.MultiGetItemResponse;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 
 public class StarVertex extends BaseVertex {
     private final ElasticMutations elasticMutations;
@@ -26,7 +23,7 @@ public class StarVertex extends BaseVertex {
         innerEdges = new HashSet<>();
         if(lazyGetter != null) {
             this.lazyGetter = lazyGetter;
-            lazyGetter.register(this, this.indexName);
+            lazyGetter.register(this, label, this.indexName);
         }
     }
 
@@ -38,11 +35,7 @@ public class StarVertex extends BaseVertex {
 
     @Override
     protected void innerAddProperty(BaseVertexProperty vertexProperty) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        elasticMutations.updateProperty(this, vertexProperty.key(), indexName, null);
     }
 
     @Override
@@ -53,11 +46,8 @@ public class StarVertex extends BaseVertex {
 
     @Override
     protected void innerRemoveProperty(Property property) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        } catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        // the document also holds the edge fields, so the property is nulled rather than the document indexed again
+        elasticMutations.updateProperty(this, property.key(), indexName, null);
     }
 
     @Override
@@ -72,18 +62,20 @@ public class StarVertex extends BaseVertex {
     }
 
     @Override
-    public void applyLazyFields(MultiGetItemResponse response) {
-        GetResponse getResponse = response.getResponse();
-        if(getResponse.isSourceEmpty()) return;
-        setFields(getResponse.getSource());
+    public void applyLazyFields(String label, Map<String, Object> source) {
+        if(source == null || source.isEmpty()) return;
+        setFields(source);
     }
 
-    @Override
-    public Iterator<Edge> edges(Direction direction, String[] edgeLabels, Predicates predicates) {
+    /**
+     * The edges held by this vertex's own document.
+     */
+    public List<Edge> innerEdges(Direction direction, String[] edgeLabels, Predicates predicates) {
+        if (lazyGetter != null) lazyGetter.execute();
         ArrayList<Edge> edges = new ArrayList<>();
         innerEdges.forEach(edge -> {
             EdgeMapping mapping = edge.getMapping();
-            if(mapping.getDirection().equals(direction) &&
+            if((direction.equals(Direction.BOTH) || mapping.getDirection().equals(direction)) &&
                 (edgeLabels.length == 0 || StarHandler.contains(edgeLabels, mapping.getLabel()))) {
 
                 // Test predicates on inner edge
@@ -98,26 +90,7 @@ public class StarVertex extends BaseVertex {
                 }
             }
         });
-
-        if(edges.size() > 0) return edges.iterator();
-
-        ArrayList<String> externalEdgeLabels = new ArrayList<>();
-        for (String label : edgeLabels) {
-            boolean internal = false;
-            for (EdgeMapping mapping : edgeMappings) {
-                if (label.equals(mapping.getLabel())) {
-                    // This label is internal
-                    internal = true;
-                }
-            }
-            if (!internal) {
-                externalEdgeLabels.add(label);
-            }
-        }
-        if (!externalEdgeLabels.isEmpty())
-            return super.edges(direction, externalEdgeLabels.toArray(new String[externalEdgeLabels.size()]), predicates);
-
-        else return new ArrayList<Edge>(0).iterator();
+        return edges;
     }
 
     public void setFields(Map<String, Object> entries){
@@ -125,6 +98,16 @@ public class StarVertex extends BaseVertex {
             if(field.getValue() != null) addPropertyLocal(field.getKey(), field.getValue());
         });
 
+        // a multi valued foreign key holds one inner edge per external vertex id
+        for (EdgeMapping mapping : edgeMappings) {
+            for (Object externalId : mapping.getExternalVertexIds(entries)) {
+                Vertex externalVertex = graph.getQueryHandler().vertex(externalId, mapping.getExternalVertexLabel(), null, mapping.getDirection().opposite());
+                Vertex inVertex = mapping.getDirection().equals(Direction.IN) ? this : externalVertex;
+                Vertex outVertex = mapping.getDirection().equals(Direction.OUT) ? this : externalVertex;
+                innerEdges.add(new InnerEdge(innerEdgeId(mapping, externalId), mapping, outVertex, inVertex,
+                        mapping.getProperties(entries), graph));
+            }
+        }
     }
 
     public InnerEdge addInnerEdge(EdgeMapping mapping, Object edgeId, String label, Vertex externalVertex,
@@ -139,14 +122,28 @@ public class StarVertex extends BaseVertex {
             return null;
         }
 
-        property(mapping.getExternalVertexField(), externalVertex.id());
+        if (mapping.isMultiValued()) {
+            VertexProperty<Object> current = property(mapping.getExternalVertexField());
+            List<Object> externalIds = new ArrayList<>();
+            if (current.isPresent()) externalIds.addAll(Arrays.asList(mapping.getExternalVertexIds(
+                    Collections.singletonMap(mapping.getExternalVertexField(), current.value()))));
+            if (externalIds.contains(externalVertex.id())) return null;
+            externalIds.add(externalVertex.id());
+            property(mapping.getExternalVertexField(), externalIds);
+        }
+        else property(mapping.getExternalVertexField(), externalVertex.id());
         Vertex inVertex = mapping.getDirection().equals(Direction.IN) ? this : externalVertex;
         Vertex outVertex = mapping.getDirection().equals(Direction.OUT) ? this : externalVertex;
-        InnerEdge edge = new InnerEdge(edgeId, mapping, outVertex, inVertex, properties, graph);
+        // an edge added without an id gets the one it is loaded with later
+        InnerEdge edge = new InnerEdge(edgeId != null ? edgeId : innerEdgeId(mapping, externalVertex.id()), mapping, outVertex, inVertex, properties, graph);
         this.innerEdges.add(edge);
         return edge;
     }
 
+    private String innerEdgeId(EdgeMapping mapping, Object externalId) {
+        return id + "_" + mapping.getLabel() + "_" + externalId;
+    }
+
     public EdgeMapping[] getEdgeMappings() {
         return edgeMappings;
     }
@@ -5,21 +5,69 @@ import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 import org.elasticgremlin.structure.*;
 
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 
 public class DocVertex extends BaseVertex {
     private final ElasticMutations elasticMutations;
     private final String indexName;
     private LazyGetter lazyGetter;
+    private InlineAdjacency inlineAdjacency;
+    private List<Map<String, Object>> adjacency;
+    private int adjacencyRevision = -1;
+    // properties copied from an edge document, which are read without fetching the vertex's own document
+    private Set<String> copiedKeys = Collections.emptySet();
 
     public DocVertex(final Object id, final String label, Object[] keyValues, ElasticGraph graph, LazyGetter lazyGetter, ElasticMutations elasticMutations, String indexName) {
+        this(id, label, keyValues, graph, lazyGetter, elasticMutations, indexName, null);
+    }
+
+    public DocVertex(final Object id, final String label, Object[] keyValues, ElasticGraph graph, LazyGetter lazyGetter, ElasticMutations elasticMutations, String indexName, InlineAdjacency inlineAdjacency) {
         super(id, label, graph, keyValues, elasticMutations);
         this.elasticMutations = elasticMutations;
         this.indexName = indexName;
+        this.inlineAdjacency = inlineAdjacency;
         if (lazyGetter != null) {
             this.lazyGetter = lazyGetter;
-            lazyGetter.register(this, this.indexName);
+            lazyGetter.register(this, label, this.indexName);
+        }
+    }
+
+    @Override
+    public void projectLazyProperties(Set<String> propertyKeys) {
+        if (lazyGetter == null || lazyGetter.isExecuted()) return;
+        this.loadedKeys = propertyKeys;
+        if (inlineAdjacency != null && propertyKeys != null) {
+            // the next hop reads the neighbours from the array
+            this.loadedKeys = new HashSet<>(propertyKeys);
+            this.loadedKeys.add(InlineAdjacency.FIELD);
+        }
+    }
+
+    @Override
+    protected List<Vertex> inlineVertices(Direction direction, String[] edgeLabels) {
+        if (inlineAdjacency == null) return null;
+        if (inlineAdjacency.isKnown(id))
+            return InlineAdjacency.vertices(this, inlineAdjacency.get(id), direction, edgeLabels, graph);
+        if (lazyGetter != null) lazyGetter.execute();
+        // an array loaded before the latest write may miss its edges
+        if (adjacencyRevision != elasticMutations.getRevision()) return null;
+        return InlineAdjacency.vertices(this, adjacency, direction, edgeLabels, graph);
+    }
+
+    @Override
+    public Property addPropertyLocal(String key, Object value) {
+        if (key.equals(InlineAdjacency.FIELD)) {
+            adjacency = (List<Map<String, Object>>) value;
+            adjacencyRevision = elasticMutations.getRevision();
+            return null;
         }
+        return super.addPropertyLocal(key, value);
+    }
+
+    @Override
+    public Map<String, Object> allFields() {
+        Map<String, Object> map = super.allFields();
+        if (inlineAdjacency != null && inlineAdjacency.isKnown(id)) map.put(InlineAdjacency.FIELD, inlineAdjacency.get(id));
+        return map;
     }
 
     @Override
@@ -30,38 +78,46 @@ public class DocVertex extends BaseVertex {
 
     @Override
     protected void innerAddProperty(BaseVertexProperty vertexProperty) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        }
-        catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        elasticMutations.updateProperty(this, vertexProperty.key(), indexName, null);
+        copyToEdges(vertexProperty.key());
+    }
+
+    // the copies on the edges are rewritten by the next flush, which looks up the edges of all the changed vertices at once
+    private void copyToEdges(String key) {
+        if (graph.getCopiedProperties().getKeys().contains(key)) elasticMutations.updateCopiedProperties(this);
     }
 
     @Override
     public <V> VertexProperty<V> property(final String key) {
-        if (lazyGetter != null) lazyGetter.execute();
+        if (lazyGetter != null && !copiedKeys.contains(key)) lazyGetter.execute();
         return super.property(key);
     }
 
+    public void applyCopiedProperties(Map<String, Object> properties) {
+        if (lazyGetter == null || lazyGetter.isExecuted()) return;
+        properties.forEach((key, value) -> {
+            if (value != null) addPropertyLocal(key, value);
+        });
+        // only the keys the edge document has copies of, which may predate a change of the copied keys
+        copiedKeys = properties.keySet();
+    }
+
     @Override
     protected void innerRemoveProperty(Property property) {
-        try {
-            elasticMutations.updateElement(this, indexName, null, false);
-        }
-        catch (ExecutionException | InterruptedException e) {
-            e.printStackTrace();
-        }
+        elasticMutations.removeProperty(this, property.key(), indexName, null);
+        copyToEdges(property.key());
     }
 
     @Override
     protected void innerRemove() {
         elasticMutations.deleteElement(this, indexName, null);
+        if (inlineAdjacency != null) inlineAdjacency.removed(this);
     }
 
     @Override
     public <V> Iterator<VertexProperty<V>> properties(final String... propertyKeys) {
-        if (lazyGetter != null) lazyGetter.execute();
+        if (lazyGetter != null && (propertyKeys.length == 0 || !copiedKeys.containsAll(Arrays.asList(propertyKeys))))
+            lazyGetter.execute();
         return super.properties(propertyKeys);
     }
 }
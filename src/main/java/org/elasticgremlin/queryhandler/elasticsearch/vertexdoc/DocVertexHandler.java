@@ -11,6 +11,7 @@ import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.SearchHit;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class DocVertexHandler implements VertexHandler {
 
@@ -18,19 +19,30 @@ public class DocVertexHandler implements VertexHandler {
     private Client client;
     private ElasticMutations elasticMutations;
     private String indexName;
-    private final int scrollSize;
+    private final ScrollSettings scroll;
     private final boolean refresh;
     private TimingAccessor timing;
     private Map<Direction, LazyGetter> lazyGetters;
     private LazyGetter defaultLazyGetter;
+    private final IdentityMap<BaseVertex> identityMap = new IdentityMap<>();
+    private final InlineAdjacency inlineAdjacency;
 
     public DocVertexHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
-                            int scrollSize, boolean refresh, TimingAccessor timing) {
+                            ScrollSettings scroll, boolean refresh, TimingAccessor timing) {
+        this(graph, client, elasticMutations, indexName, scroll, refresh, timing, null);
+    }
+
+    /**
+     * @param inlineAdjacency keeps the neighbours of low degree vertices on their documents, or null
+     */
+    public DocVertexHandler(ElasticGraph graph, Client client, ElasticMutations elasticMutations, String indexName,
+                            ScrollSettings scroll, boolean refresh, TimingAccessor timing, InlineAdjacency inlineAdjacency) {
         this.graph = graph;
+        this.inlineAdjacency = inlineAdjacency;
         this.client = client;
         this.elasticMutations = elasticMutations;
         this.indexName = indexName;
-        this.scrollSize = scrollSize;
+        this.scroll = scroll;
         this.refresh = refresh;
         this.timing = timing;
         this.lazyGetters = new HashMap<>();
@@ -38,15 +50,19 @@ public class DocVertexHandler implements VertexHandler {
 
     @Override
     public Iterator<Vertex> vertices() {
-        return new QueryIterator<>(FilterBuilders.missingFilter(DocEdge.InId), 0, scrollSize,
-                Integer.MAX_VALUE, client, this::createVertex, refresh, timing, indexName);
+        return vertices(new Predicates());
+    }
+
+    public Iterator<Vertex> vertices(int shard) {
+        return new QueryIterator<>(FilterBuilders.missingFilter(DocEdge.InId), 0, scroll, Integer.MAX_VALUE,
+                Collections.emptyList(), null, "_shards:" + shard, null, client, this::createVertex, refresh(), timing, indexName);
     }
 
     @Override
     public Iterator<? extends Vertex> vertices(Object[] vertexIds) {
         List<BaseVertex> vertices = new ArrayList<>();
         for(Object id : vertexIds){
-            DocVertex vertex = new DocVertex(id.toString(), null, null, graph, getLazyGetter(), elasticMutations, indexName);
+            BaseVertex vertex = lazyVertex(id.toString(), null, this::getLazyGetter);
             vertex.setSiblings(vertices);
             vertices.add(vertex);
         }
@@ -55,20 +71,51 @@ public class DocVertexHandler implements VertexHandler {
 
     @Override
     public Iterator<Vertex> vertices(Predicates predicates) {
+        String[] sourceIncludes = inlineAdjacency == null ? ElasticHelper.sourceIncludes(predicates.propertyKeys) :
+                ElasticHelper.sourceIncludes(predicates.propertyKeys, InlineAdjacency.FIELD);
+        WriteOverlay.View overlay = overlay(predicates);
+        if (scroll.scansInParallel(predicates)) {
+            Iterator<Vertex> vertices = new ParallelScanIterator<>(createFilter(predicates), sourceIncludes, scroll, client,
+                    hits -> createVertex(hits, predicates.propertyKeys), overlay == null && refresh(), timing, indexName);
+            return overlay == null ? vertices : overlay.merge(vertices, Vertex.class, vertex -> true, Long.MAX_VALUE);
+        }
+        if (overlay == null)
+            return new QueryIterator<>(createFilter(predicates), predicates, sourceIncludes, scroll,
+                    client, hits -> createVertex(hits, predicates.propertyKeys), refresh(), timing, indexName);
+
+        // the hits the overlay drops are made up for by searching for as many more
+        QueryIterator<Vertex> vertices = new QueryIterator<>(createFilter(predicates), 0, scroll,
+                ElasticHelper.widen(predicates.limitHigh, overlay.size()), predicates.orders, sourceIncludes, client,
+                hits -> createVertex(hits, predicates.propertyKeys), false, timing, indexName);
+        return overlay.merge(vertices, Vertex.class, vertex -> WriteOverlay.test(predicates.hasContainers, vertex), predicates.limitHigh);
+    }
+
+    public BoolFilterBuilder createFilter(Predicates predicates) {
         BoolFilterBuilder boolFilter = ElasticHelper.createFilterBuilder(predicates.hasContainers);
         boolFilter.must(FilterBuilders.missingFilter(DocEdge.InId));
-        return new QueryIterator<>(boolFilter, 0, scrollSize, predicates.limitHigh - predicates.limitLow,
-                client, this::createVertex, refresh, timing, indexName);
+        return boolFilter;
     }
 
     @Override
     public BaseVertex vertex(Object vertexId, String vertexLabel, Edge edge, Direction direction) {
-        return new DocVertex(vertexId,vertexLabel, null ,graph,getLazyGetter(direction), elasticMutations, indexName);
+        return lazyVertex(vertexId, vertexLabel, () -> getLazyGetter(direction));
+    }
+
+    // vertices reached again before the next write reuse the instance, its properties and its queried edges
+    private BaseVertex lazyVertex(Object id, String label, Supplier<LazyGetter> lazyGetter) {
+        int revision = elasticMutations.getRevision();
+        BaseVertex vertex = identityMap.get(id.toString(), revision);
+        if (vertex == null) {
+            vertex = new DocVertex(id, label, null, graph, lazyGetter.get(), elasticMutations, indexName, inlineAdjacency);
+            identityMap.put(id.toString(), vertex, revision);
+        }
+        return vertex;
     }
 
     @Override
     public BaseVertex addVertex(Object id, String label, Object[] properties) {
-        BaseVertex v = new DocVertex(id, label, properties, graph, null, elasticMutations, indexName);
+        BaseVertex v = new DocVertex(id, label, properties, graph, null, elasticMutations, indexName, inlineAdjacency);
+        if (inlineAdjacency != null) inlineAdjacency.created(v);
 
         try {
             elasticMutations.addElement(v, indexName, null, true);
@@ -80,7 +127,7 @@ public class DocVertexHandler implements VertexHandler {
 
     private LazyGetter getLazyGetter() {
         if (defaultLazyGetter == null || !defaultLazyGetter.canRegister()) {
-            defaultLazyGetter = new LazyGetter(client, timing);
+            defaultLazyGetter = new LazyGetter(client, timing, elasticMutations);
         }
         return defaultLazyGetter;
     }
@@ -88,7 +135,7 @@ public class DocVertexHandler implements VertexHandler {
     private LazyGetter getLazyGetter(Direction direction) {
         LazyGetter lazyGetter = lazyGetters.get(direction);
         if (lazyGetter == null || !lazyGetter.canRegister()) {
-            lazyGetter = new LazyGetter(client, timing);
+            lazyGetter = new LazyGetter(client, timing, elasticMutations);
             lazyGetters.put(direction,
                     lazyGetter);
         }
@@ -96,13 +143,33 @@ public class DocVertexHandler implements VertexHandler {
     }
 
     private Iterator<? extends Vertex> createVertex(Iterator<SearchHit> hits) {
+        return createVertex(hits, null);
+    }
+
+    private Iterator<? extends Vertex> createVertex(Iterator<SearchHit> hits, Set<String> loadedKeys) {
         ArrayList<BaseVertex> vertices = new ArrayList<>();
+        int revision = elasticMutations.getRevision();
         hits.forEachRemaining(hit -> {
-            BaseVertex vertex = new DocVertex(hit.id(), hit.getType(), null, graph, null, elasticMutations, indexName);
+            BaseVertex vertex = new DocVertex(hit.id(), hit.getType(), null, graph, null, elasticMutations, indexName, inlineAdjacency);
+            identityMap.put(hit.id(), vertex, revision);
             vertex.setSiblings(vertices);
-            hit.getSource().entrySet().forEach((field) -> vertex.addPropertyLocal(field.getKey(), field.getValue()));
+            vertex.setLoadedKeys(loadedKeys);
+            if (hit.getSource() != null)
+                hit.getSource().entrySet().forEach((field) -> vertex.addPropertyLocal(field.getKey(), field.getValue()));
             vertices.add(vertex);
         });
         return vertices.iterator();
     }
+
+    // the overlay of this graph's unrefreshed writes to merge into a search, or null when the search refreshes instead
+    private WriteOverlay.View overlay(Predicates predicates) {
+        WriteOverlay overlay = elasticMutations.getOverlay();
+        if (overlay == null || !WriteOverlay.canMerge(predicates)) return null;
+        WriteOverlay.View view = overlay.view(indexName);
+        return view.isEmpty() ? null : view;
+    }
+
+    private boolean refresh() {
+        return (refresh || elasticMutations.getOverlay() != null) && elasticMutations.needsRefresh(indexName);
+    }
 }
@@ -44,6 +44,14 @@ public abstract class BaseEdge extends BaseElement implements Edge {
 
     protected abstract void innerAddProperty(BaseProperty vertexProperty);
 
+    /**
+     * Builds edges of this edge's kind from plain data, or null when they can't be, in which case the adjacency they
+     * are part of isn't cached. The factory mustn't hold on to this edge or its vertices.
+     */
+    public EdgeFactory factory() {
+        return null;
+    }
+
     @Override
     public Iterator<Property> properties(String... propertyKeys) {
         checkRemoved();
@@ -60,4 +68,8 @@ public abstract class BaseEdge extends BaseElement implements Edge {
     public String toString() {
         return StringFactory.edgeString(this);
     }
+
+    public interface EdgeFactory {
+        BaseEdge create(Object id, String label, Object[] keyValues, Vertex outVertex, Vertex inVertex);
+    }
 }
@@ -11,6 +11,8 @@ public abstract class BaseElement implements Element{
     protected String label;
     protected final ElasticGraph graph;
     protected boolean removed = false;
+    // the keys that were fetched when only part of the document was loaded, null when all of it was
+    protected Set<String> loadedKeys = null;
 
     public BaseElement(final Object id, final String label, ElasticGraph graph, Object[] keyValues) {
         this.graph = graph;
@@ -58,12 +60,14 @@ public abstract class BaseElement implements Element{
 
     @Override
     public Set<String> keys() {
+        loadProperties();
         return this.properties.keySet();
     }
 
     @Override
     public <V> Property<V> property(final String key) {
         checkRemoved();
+        loadProperties(key);
         return this.properties.containsKey(key) ? this.properties.get(key) : Property.<V>empty();
     }
 
@@ -79,6 +83,7 @@ public abstract class BaseElement implements Element{
     }
 
     protected Iterator innerPropertyIterator(String[] propertyKeys) {
+        loadProperties(propertyKeys);
         HashMap<String, Property> properties = (HashMap<String, Property>) this.properties.clone();
 
         if (propertyKeys.length > 0)
@@ -88,6 +93,29 @@ public abstract class BaseElement implements Element{
     }
 
 
+    public Set<String> getLoadedKeys() {
+        return loadedKeys;
+    }
+
+    public void setLoadedKeys(Set<String> loadedKeys) {
+        this.loadedKeys = loadedKeys;
+    }
+
+    protected void loadProperties(String... keys) {
+        if (loadedKeys == null) return;
+        if (keys.length > 0 && loadedKeys.containsAll(Arrays.asList(keys))) return;
+
+        loadedKeys = null;
+        Object[] ids = new Object[]{id};
+        Iterator<? extends Element> elements = this instanceof Vertex ?
+                graph.getQueryHandler().vertices(ids) :
+                graph.getQueryHandler().edges(ids);
+        if (!elements.hasNext()) return;
+        elements.next().properties().forEachRemaining(property -> {
+            if (!properties.containsKey(property.key())) addPropertyLocal(property.key(), property.value());
+        });
+    }
+
     public void removeProperty(Property property) {
         properties.remove(property.key());
         this.innerRemoveProperty(property);
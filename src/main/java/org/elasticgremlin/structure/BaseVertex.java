@@ -1,18 +1,23 @@
 package org.elasticgremlin.structure;
 
+import org.apache.tinkerpop.gremlin.process.traversal.P;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
 import org.apache.tinkerpop.gremlin.structure.*;
 import org.apache.tinkerpop.gremlin.structure.util.*;
 import org.apache.tinkerpop.gremlin.util.iterator.IteratorUtils;
-import org.elasticgremlin.queryhandler.Predicates;
-import org.elasticgremlin.queryhandler.elasticsearch.helpers.ElasticMutations;
-import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticgremlin.queryhandler.*;
+import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 
 import java.util.*;
 
 public abstract class BaseVertex extends BaseElement implements Vertex {
 
+    // a rough estimate of a cached edge with its vertices
+    private static final int EDGE_SIZE = 256;
+
     private final ElasticMutations elasticMutations;
     private HashMap<EdgeQueryInfo, Set<Edge>> queriedEdges = new HashMap<>();
+    private HashMap<EdgeQueryInfo, List<Vertex>> queriedVertices = new HashMap<>();
     protected List<BaseVertex> siblings;
 
     protected BaseVertex(Object id, String label, ElasticGraph graph, Object[] keyValues, ElasticMutations elasticMutations) {
@@ -44,25 +49,124 @@ public abstract class BaseVertex extends BaseElement implements Vertex {
 
     public Iterator<Vertex> vertices(Direction direction, String[] edgeLabels, Predicates predicates) {
         checkRemoved();
-        Iterator<Edge> edgeIterator = edges(direction, edgeLabels, predicates);
-        ArrayList<Vertex> vertices = new ArrayList<>();
-        if (edgeIterator != null) {
-            edgeIterator.forEachRemaining(edge ->
-                    vertices.add(vertexToVertex(this, edge, direction)));
+        if (predicates.hasContainers.isEmpty()) {
+            List<Vertex> inlineVertices = readsCopiedProperties(graph, predicates) ? null : inlineVertices(direction, edgeLabels);
+            if (inlineVertices != null) {
+                if (inlineVertices.size() > predicates.limitHigh) inlineVertices = inlineVertices.subList(0, (int) predicates.limitHigh);
+                if (predicates.propertyKeys != null) inlineVertices.forEach(vertex ->
+                        ((BaseVertex) vertex).projectLazyProperties(predicates.propertyKeys));
+                return inlineVertices.iterator();
+            }
+            Iterator<Edge> edgeIterator = edges(direction, edgeLabels, edgePredicates(predicates), predicates.propertyKeys);
+            ArrayList<Vertex> vertices = new ArrayList<>();
+            edgeIterator.forEachRemaining(edge -> vertices.add(vertexToVertex(this, edge, direction)));
+            return vertices.iterator();
+        }
+
+        EdgeQueryInfo queryInfo = queryInfo(direction, edgeLabels, predicates);
+        List<Vertex> vertices = queriedVertices.get(queryInfo);
+        if (vertices == null) {
+            loadVertices(siblings == null ? IteratorUtils.asList(this) : siblings, direction, edgeLabels, predicates);
+            vertices = queriedVertices.get(queryInfo);
         }
         return vertices.iterator();
     }
 
+    public static void loadVertices(List<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        Predicates edgePredicates = edgePredicates(predicates);
+        if (predicates.hasContainers.isEmpty()) {
+            // vertices listing their neighbours on their own documents don't need their edges
+            List<BaseVertex> searched = new ArrayList<>();
+            vertices.forEach(vertex -> {
+                if (readsCopiedProperties(vertex.graph, predicates) || vertex.inlineVertices(direction, edgeLabels) == null) searched.add(vertex);
+            });
+            if (!searched.isEmpty()) loadEdges(searched, direction, edgeLabels, edgePredicates, predicates.propertyKeys);
+            return;
+        }
+
+        // the predicates filter the adjacent vertices, which are searched for by id instead of fetched one by one
+        List<BaseVertex> missing = new ArrayList<>();
+        vertices.forEach(vertex -> {
+            if (!vertex.queriedVertices.containsKey(vertex.queryInfo(direction, edgeLabels, predicates))) missing.add(vertex);
+        });
+        if (missing.isEmpty()) return;
+
+        Predicates copiedPredicates = missing.get(0).graph.getCopiedProperties().edgePredicates(direction, predicates);
+        if (copiedPredicates != null) {
+            // the adjacent vertices are filtered by the copies of their properties on the edges
+            loadEdges(missing, direction, edgeLabels, copiedPredicates, predicates.propertyKeys);
+            missing.forEach(vertex -> {
+                List<Vertex> results = new ArrayList<>();
+                vertex.edges(direction, edgeLabels, copiedPredicates).forEachRemaining(edge -> results.add(vertexToVertex(vertex, edge, direction)));
+                vertex.queriedVertices.put(vertex.queryInfo(direction, edgeLabels, predicates), results);
+            });
+            return;
+        }
+
+        loadEdges(missing, direction, edgeLabels, edgePredicates, null);
+
+        Map<BaseVertex, List<Vertex>> adjacentVertices = new HashMap<>();
+        Set<Object> ids = new HashSet<>();
+        missing.forEach(vertex -> {
+            List<Vertex> adjacent = new ArrayList<>();
+            vertex.edges(direction, edgeLabels, edgePredicates).forEachRemaining(edge -> adjacent.add(vertexToVertex(vertex, edge, direction)));
+            adjacent.forEach(adjacentVertex -> ids.add(adjacentVertex.id()));
+            adjacentVertices.put(vertex, adjacent);
+        });
+
+        Map<Object, Vertex> passed = new HashMap<>();
+        if (!ids.isEmpty()) {
+            Predicates vertexPredicates = new Predicates();
+            vertexPredicates.hasContainers.addAll(predicates.hasContainers);
+            vertexPredicates.hasContainers.add(new HasContainer(T.id.getAccessor(), P.within(new ArrayList<>(ids))));
+            vertexPredicates.propertyKeys = predicates.propertyKeys;
+            missing.get(0).graph.getQueryHandler().vertices(vertexPredicates).forEachRemaining(vertex -> passed.put(vertex.id(), vertex));
+        }
+
+        // keep one result per edge, like the unfiltered step does
+        adjacentVertices.forEach((vertex, adjacent) -> {
+            List<Vertex> results = new ArrayList<>();
+            for (Vertex adjacentVertex : adjacent) {
+                Vertex passedVertex = passed.get(adjacentVertex.id());
+                if (passedVertex != null && results.size() < predicates.limitHigh) results.add(passedVertex);
+            }
+            vertex.queriedVertices.put(vertex.queryInfo(direction, edgeLabels, predicates), results);
+        });
+    }
+
+    // the edge search answers the properties read from the adjacent vertices when they are all copied onto the edges
+    private static boolean readsCopiedProperties(ElasticGraph graph, Predicates predicates) {
+        return graph.getCopiedProperties().containsAll(predicates.propertyKeys);
+    }
+
+    private static Predicates edgePredicates(Predicates predicates) {
+        boolean filtered = !predicates.hasContainers.isEmpty();
+        // the edges are only walked through, none of their own properties are read
+        Predicates edgePredicates = new Predicates();
+        edgePredicates.limitHigh = filtered ? Long.MAX_VALUE : predicates.limitHigh;
+        edgePredicates.propertyKeys = predicates.propertyKeys != null || filtered ? Collections.emptySet() : null;
+        return edgePredicates;
+    }
+
     public void setSiblings(List<BaseVertex> siblings) {
         this.siblings = siblings;
     }
 
-    public void applyLazyFields(MultiGetItemResponse response) {
-        setLabel(response.getType());
-        response.getResponse().getSource().entrySet().forEach((field) ->
+    public void applyLazyFields(String label, Map<String, Object> source) {
+        setLabel(label);
+        if (source != null) source.entrySet().forEach((field) ->
                 addPropertyLocal(field.getKey(), field.getValue()));
     }
 
+    // the neighbours listed on the vertex's own document, or null when its edges have to be searched for
+    protected List<Vertex> inlineVertices(Direction direction, String[] edgeLabels) {
+        return null;
+    }
+
+    // restricts a lazy load that hasn't run yet to the given property keys
+    public void projectLazyProperties(Set<String> propertyKeys) {
+    }
+
     public static Vertex vertexToVertex(Vertex originalVertex, Edge edge, Direction direction) {
         switch (direction) {
             case OUT:
@@ -98,6 +202,7 @@ public abstract class BaseVertex extends BaseElement implements Vertex {
     @Override
     public <V> VertexProperty<V> property(final String key) {
         checkRemoved();
+        loadProperties(key);
         if (this.properties.containsKey(key)) {
             return (VertexProperty<V>) this.properties.get(key);
         }
@@ -140,21 +245,135 @@ public abstract class BaseVertex extends BaseElement implements Vertex {
     }
 
     public Iterator<Edge> edges(Direction direction, String[] edgeLabels, Predicates predicates) {
-        EdgeQueryInfo queryInfo = new EdgeQueryInfo(direction, edgeLabels, predicates, elasticMutations.getRevision());
+        return edges(direction, edgeLabels, predicates, null);
+    }
+
+    private Iterator<Edge> edges(Direction direction, String[] edgeLabels, Predicates predicates, Set<String> vertexPropertyKeys) {
+        EdgeQueryInfo queryInfo = queryInfo(direction, edgeLabels, predicates);
         Set<Edge> edges = queriedEdges.get(queryInfo);
-        if (edges != null)  return edges.iterator();
+        if (edges == null) {
+            loadEdges(siblings == null ? IteratorUtils.asList(this) : siblings, direction, edgeLabels, predicates, vertexPropertyKeys);
+            edges = queriedEdges.get(queryInfo);
+        }
+        return edges.iterator();
+    }
+
+    public static void loadEdges(List<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        loadEdges(vertices, direction, edgeLabels, predicates, null);
+    }
+
+    private static void loadEdges(List<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates, Set<String> vertexPropertyKeys) {
+        List<BaseVertex> missing = new ArrayList<>();
+        vertices.forEach(vertex -> {
+            if (!vertex.queriedEdges.containsKey(vertex.queryInfo(direction, edgeLabels, predicates))) missing.add(vertex);
+        });
+        if (missing.isEmpty()) return;
+
+        ElementCache cache = missing.get(0).graph.getElementCache();
+        int revision = missing.get(0).elasticMutations.getRevision();
+        List<Set<Edge>> loaded = new ArrayList<>();
+        if (cache.isEnabled()) {
+            missing.removeIf(vertex -> {
+                EdgeQueryInfo queryInfo = vertex.queryInfo(direction, edgeLabels, predicates);
+                List<CachedEdge> cachedEdges = cache.get(Arrays.asList(vertex.id(), queryInfo), revision);
+                if (cachedEdges == null) return false;
+                Set<Edge> edges = new LinkedHashSet<>();
+                cachedEdges.forEach(cachedEdge -> edges.add(cachedEdge.edge(vertex)));
+                vertex.queriedEdges.put(queryInfo, edges);
+                loaded.add(edges);
+                return true;
+            });
+        }
 
-        List<BaseVertex> vertices = siblings == null ? IteratorUtils.asList(this) : siblings;
+        Map<Object, Set<Edge>> vertexToEdge = missing.isEmpty() ? Collections.emptyMap() : edges(missing, direction, edgeLabels, predicates);
+        missing.forEach(vertex -> {
+            Set<Edge> edges = vertexToEdge.getOrDefault(vertex.id(), Collections.emptySet());
+            EdgeQueryInfo queryInfo = vertex.queryInfo(direction, edgeLabels, predicates);
+            vertex.queriedEdges.put(queryInfo, edges);
+            loaded.add(edges);
+            List<CachedEdge> cachedEdges = cache.isEnabled() ? CachedEdge.of(edges) : null;
+            if (cachedEdges != null)
+                cache.put(Arrays.asList(vertex.id(), queryInfo), cachedEdges, 64 + EDGE_SIZE * edges.size(), revision);
+        });
+        if (vertexPropertyKeys != null) loaded.forEach(vertexEdges -> vertexEdges.forEach(edge ->
+                edge.vertices(Direction.BOTH).forEachRemaining(vertex -> {
+                    if (vertex instanceof BaseVertex) ((BaseVertex) vertex).projectLazyProperties(vertexPropertyKeys);
+                })));
+    }
 
-        Map<Object, Set<Edge>> vertexToEdge = graph.getQueryHandler().edges(vertices.iterator(), direction, edgeLabels, predicates);
-        vertices.forEach( vertex -> vertex.addQueriedEdges(queryInfo, vertexToEdge.get(vertex.id())));
+    // a limit is per vertex, while a query handler applies it to all the edges it loads at once
+    private static Map<Object, Set<Edge>> edges(List<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        QueryHandler queryHandler = vertices.get(0).graph.getQueryHandler();
+        if (vertices.size() == 1 || predicates.limitHigh == Long.MAX_VALUE)
+            return queryHandler.edges(vertices.iterator(), direction, edgeLabels, predicates);
+        if (queryHandler instanceof LimitedEdgeHandler)
+            return ((LimitedEdgeHandler) queryHandler).limitedEdges(vertices.iterator(), direction, edgeLabels, predicates);
+
+        // one query per vertex keeps the limit on the server
+        Map<Object, Set<Edge>> vertexToEdge = new HashMap<>();
+        vertices.forEach(vertex -> {
+            Set<Edge> edges = queryHandler.edges(IteratorUtils.of(vertex), direction, edgeLabels, predicates).get(vertex.id());
+            if (edges != null) vertexToEdge.put(vertex.id(), edges);
+        });
+        return vertexToEdge;
+    }
 
-        Set<Edge> thisEdges = vertexToEdge.get(this.id());
-        return thisEdges != null ? thisEdges.iterator() : Collections.emptyIterator();
+    private EdgeQueryInfo queryInfo(Direction direction, String[] edgeLabels, Predicates predicates) {
+        return new EdgeQueryInfo(direction, edgeLabels, predicates, elasticMutations.getRevision());
     }
 
-    private void addQueriedEdges(EdgeQueryInfo queryInfo, Set<Edge> edges) {
-        queriedEdges.put(queryInfo, edges);
+    // an edge as plain data, so that the cache shares no elements between threads: every hit builds the edge again,
+    // with vertices from the identity map of the thread that reads it
+    private static class CachedEdge {
+        private final Object id;
+        private final String label;
+        private final Object[] keyValues;
+        private final Set<String> loadedKeys;
+        private final Object outId;
+        private final String outLabel;
+        private final Object inId;
+        private final String inLabel;
+        private final BaseEdge.EdgeFactory factory;
+
+        private CachedEdge(BaseEdge edge, BaseEdge.EdgeFactory factory) {
+            this.id = edge.id();
+            this.label = edge.label();
+            List<Object> keyValues = new ArrayList<>();
+            edge.properties.values().forEach(property -> {
+                keyValues.add(property.key());
+                keyValues.add(property.value());
+            });
+            this.keyValues = keyValues.toArray();
+            this.loadedKeys = edge.getLoadedKeys() == null ? null : new HashSet<>(edge.getLoadedKeys());
+            this.outId = edge.outVertex.id();
+            this.outLabel = edge.outVertex.label();
+            this.inId = edge.inVertex.id();
+            this.inLabel = edge.inVertex.label();
+            this.factory = factory;
+        }
+
+        // null when one of the edges can't be built again
+        public static List<CachedEdge> of(Set<Edge> edges) {
+            List<CachedEdge> cachedEdges = new ArrayList<>(edges.size());
+            for (Edge edge : edges) {
+                BaseEdge.EdgeFactory factory = edge instanceof BaseEdge ? ((BaseEdge) edge).factory() : null;
+                if (factory == null) return null;
+                cachedEdges.add(new CachedEdge((BaseEdge) edge, factory));
+            }
+            return cachedEdges;
+        }
+
+        public Edge edge(BaseVertex vertex) {
+            BaseEdge edge = factory.create(id, label, keyValues, vertex(vertex, outId, outLabel, Direction.OUT),
+                    vertex(vertex, inId, inLabel, Direction.IN));
+            edge.setLoadedKeys(loadedKeys);
+            return edge;
+        }
+
+        private static Vertex vertex(BaseVertex vertex, Object id, String label, Direction direction) {
+            if (vertex.id().equals(id)) return vertex;
+            return vertex.graph.getQueryHandler().vertex(id, label, null, direction);
+        }
     }
 
     private static class EdgeQueryInfo {
@@ -39,7 +39,7 @@ public class ElasticFeatures implements Graph.Features {
 
         @Override
         public boolean supportsComputer() {
-            return false;
+            return true;
         }
 
         @Override
@@ -5,9 +5,11 @@ import org.apache.tinkerpop.gremlin.process.computer.GraphComputer;
 import org.apache.tinkerpop.gremlin.process.traversal.TraversalStrategies;
 import org.apache.tinkerpop.gremlin.structure.*;
 import org.apache.tinkerpop.gremlin.structure.util.*;
+import org.elasticgremlin.process.computer.ElasticGraphComputer;
 import org.elasticgremlin.process.optimize.ElasticOptimizationStrategy;
 import org.elasticgremlin.queryhandler.*;
 import org.elasticgremlin.queryhandler.SimpleQueryHandler;
+import org.elasticgremlin.queryhandler.elasticsearch.helpers.*;
 
 import java.util.*;
 
@@ -37,10 +39,6 @@ import java.util.*;
         reason = "https://github.com/rmagen/elastic-gremlin/issues/52")
 @Graph.OptOut(test = "org.apache.tinkerpop.gremlin.structure.GraphConstructionTest", method = "shouldConstructAnEmptyGraph",
         reason = "need to investigate...")
-@Graph.OptOut(test = "org.apache.tinkerpop.gremlin.process.traversal.step.map.CountTest", method = "g_V_repeatXoutX_timesX3X_count",
-        reason = "Takes too long.")
-@Graph.OptOut(test = "org.apache.tinkerpop.gremlin.process.traversal.step.map.CountTest", method = "g_V_repeatXoutX_timesX8X_count",
-        reason = "OutOfMemory exception")
 @Graph.OptOut(test = "org.apache.tinkerpop.gremlin.process.traversal.step.sideEffect.SubgraphTest$Traversals", method = "g_V_withSideEffectXsgX_repeatXbothEXcreatedX_subgraphXsgX_outVX_timesX5X_name_dedup",
         reason = "need to investigate...")
 @Graph.OptOut(test = "org.apache.tinkerpop.gremlin.process.traversal.step.sideEffect.SubgraphTest$Traversals", method = "g_V_withSideEffectXsgX_outEXknowsX_subgraphXsgX_name_capXsgX",
@@ -60,11 +58,17 @@ public class ElasticGraph implements Graph {
     private ElasticFeatures features = new ElasticFeatures();
     private final Configuration configuration;
     private QueryHandler queryHandler;
+    private ElementCache elementCache;
+    private MultiGetChunker multiGetChunker;
+    private CopiedProperties copiedProperties;
 
     public ElasticGraph(Configuration configuration) throws InstantiationException {
         try {
             configuration.setProperty(Graph.GRAPH, ElasticGraph.class.getName());
             this.configuration = configuration;
+            this.elementCache = new ElementCache(configuration.getLong("elasticsearch.cache.sizeMb", 0) * 1024 * 1024);
+            this.multiGetChunker = new MultiGetChunker(configuration);
+            this.copiedProperties = new CopiedProperties(configuration);
             String queryHandlerName = configuration.getString("queryHandler");
             if(queryHandlerName != null) this.queryHandler = (QueryHandler)Class.forName(queryHandlerName).newInstance();
             else this.queryHandler = new SimpleQueryHandler();
@@ -80,8 +84,26 @@ public class ElasticGraph implements Graph {
         return queryHandler;
     }
 
+    public ElementCache getElementCache() {
+        return elementCache;
+    }
+
+    public MultiGetChunker getMultiGetChunker() {
+        return multiGetChunker;
+    }
+
+    public CopiedProperties getCopiedProperties() {
+        return copiedProperties;
+    }
+
     public void commit() { queryHandler.commit(); }
 
+    /**
+     * Barrier for the asynchronous and bulk write modes: returns once every mutation made so far has been answered by
+     * ES, and throws if any of them failed.
+     */
+    public void flush() { queryHandler.commit(); }
+
     @Override
     public Configuration configuration() {
         return this.configuration;
@@ -115,12 +137,13 @@ public class ElasticGraph implements Graph {
 
     @Override
     public <C extends GraphComputer> C compute(Class<C> graphComputerClass) throws IllegalArgumentException {
-        throw Exceptions.graphComputerNotSupported();
+        if (!graphComputerClass.equals(ElasticGraphComputer.class)) throw Exceptions.graphDoesNotSupportProvidedGraphComputer(graphComputerClass);
+        return (C) new ElasticGraphComputer(this);
     }
 
     @Override
     public GraphComputer compute() throws IllegalArgumentException {
-        throw Exceptions.graphComputerNotSupported();
+        return new ElasticGraphComputer(this);
     }
 
     @Override
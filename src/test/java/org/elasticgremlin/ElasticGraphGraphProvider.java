@@ -93,6 +93,10 @@ public class ElasticGraphGraphProvider extends AbstractGraphProvider {
         if (g != null) {
             String indexName = configuration.getString("elasticsearch.index.name");
             ElasticHelper.clearIndex(client, indexName);
+            if (configuration.getBoolean("elasticsearch.edgeIndices", false)) {
+                ElasticHelper.clearIndex(client, indexName + "_out");
+                ElasticHelper.clearIndex(client, indexName + "_in");
+            }
             g.close();
         }
         if(g instanceof ElasticGraph)
@@ -0,0 +1,49 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.tinkerpop.gremlin.LoadGraphWith;
+import org.apache.tinkerpop.gremlin.process.computer.ComputerResult;
+import org.apache.tinkerpop.gremlin.process.computer.GraphComputer;
+import org.apache.tinkerpop.gremlin.process.computer.ranking.pagerank.PageRankVertexProgram;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.ElasticGraphGraphProvider;
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class ComputerTests {
+
+    private Graph graph;
+
+    @Before
+    public void startUp() throws InstantiationException, IOException, ExecutionException, InterruptedException {
+        ElasticGraphGraphProvider elasticGraphProvider = new ElasticGraphGraphProvider();
+        final Configuration configuration = elasticGraphProvider.newGraphConfiguration("testGraph", this.getClass(), "computerTests", LoadGraphWith.GraphData.MODERN);
+        this.graph = elasticGraphProvider.openTestGraph(configuration);
+
+        Vertex hub = graph.addVertex(T.id, "hub", T.label, "hub");
+        for (int i = 0; i < 5; i++)
+            hub.addEdge("link", graph.addVertex(T.id, "leaf" + i, T.label, "leaf"));
+    }
+
+    @Test
+    public void pageRank() throws ExecutionException, InterruptedException {
+        ComputerResult result = graph.compute().program(PageRankVertexProgram.build().create(graph)).submit().get();
+        assertSame(graph, result.graph());
+        assertTrue(result.memory().getIteration() > 0);
+
+        double hubRank = graph.traversal().V("hub").<Double>values(PageRankVertexProgram.PAGE_RANK).next();
+        double leafRank = graph.traversal().V("leaf0").<Double>values(PageRankVertexProgram.PAGE_RANK).next();
+        assertTrue(leafRank > hubRank);
+        assertEquals(6, graph.traversal().V().values(PageRankVertexProgram.PAGE_RANK).toList().size());
+    }
+
+    @Test
+    public void computeKeysAreNotPersistedWhenNotAsked() throws ExecutionException, InterruptedException {
+        graph.compute().program(PageRankVertexProgram.build().create(graph)).persist(GraphComputer.Persist.NOTHING).submit().get();
+        assertFalse(graph.traversal().V().values(PageRankVertexProgram.PAGE_RANK).hasNext());
+    }
+}
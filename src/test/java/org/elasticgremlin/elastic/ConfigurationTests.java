@@ -1,35 +1,17 @@
 package org.elasticgremlin.elastic;
 
-import org.apache.commons.configuration.Configuration;
-import org.apache.tinkerpop.gremlin.LoadGraphWith;
 import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversal;
 import org.apache.tinkerpop.gremlin.structure.*;
-import org.elasticgremlin.ElasticGraphGraphProvider;
 import org.junit.*;
 
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.concurrent.ExecutionException;
-
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
-public class ConfigurationTests {
-
-    private Graph graph;
-
-    @Before
-    public void startUp() throws InstantiationException, IOException, ExecutionException, InterruptedException {
-        ElasticGraphGraphProvider elasticGraphProvider = new ElasticGraphGraphProvider();
-        HashMap<String, Object> config = new HashMap<>();
-        config.put("elasticsearch.upsert", true);
-        final Configuration configuration = elasticGraphProvider.newGraphConfiguration("testGraph", this.getClass(), "spatialTests",
-                config, LoadGraphWith.GraphData.MODERN);
-        this.graph = elasticGraphProvider.openTestGraph(configuration);
-    }
+public class ConfigurationTests extends ConfiguredGraphTests {
 
     @Test
     public void upsertConfiguration() throws  InstantiationException {
+        Graph graph = openGraph("upsertTests", "elasticsearch.upsert", true);
         graph.addVertex(T.id, "1", "field", "a", "field2", "c");
         graph.addVertex(T.id, "1", "field", "b");
 
@@ -0,0 +1,57 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.tinkerpop.gremlin.LoadGraphWith;
+import org.elasticgremlin.ElasticGraphGraphProvider;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Opens graphs with settings of their own, and clears and closes every one of them after the test, along with its
+ * client and write threads.
+ */
+public abstract class ConfiguredGraphTests {
+
+    protected ElasticGraphGraphProvider graphProvider;
+    private final List<ElasticGraph> openGraphs = new ArrayList<>();
+
+    @Before
+    public void startUp() throws IOException, ExecutionException, InterruptedException {
+        graphProvider = new ElasticGraphGraphProvider();
+    }
+
+    @After
+    public void closeGraphs() throws Exception {
+        for (ElasticGraph graph : openGraphs) graphProvider.clear(graph, graph.configuration());
+        openGraphs.clear();
+    }
+
+    /**
+     * Opens a graph on an index of the given name, with the settings given as key value pairs.
+     */
+    protected ElasticGraph openGraph(String name, Object... settings) throws InstantiationException {
+        Map<String, Object> config = new HashMap<>();
+        for (int i = 0; i < settings.length; i += 2) config.put(settings[i].toString(), settings[i + 1]);
+        Configuration configuration = graphProvider.newGraphConfiguration(name, getClass(), name, config, LoadGraphWith.GraphData.MODERN);
+        return open(configuration);
+    }
+
+    /**
+     * Closes the graph and opens it again on the same index.
+     */
+    protected ElasticGraph reopenGraph(ElasticGraph graph) throws InstantiationException {
+        openGraphs.remove(graph);
+        graph.close();
+        return open(graph.configuration());
+    }
+
+    private ElasticGraph open(Configuration configuration) throws InstantiationException {
+        ElasticGraph graph = (ElasticGraph) graphProvider.openTestGraph(configuration);
+        openGraphs.add(graph);
+        return graph;
+    }
+}
@@ -0,0 +1,108 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.junit.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class EdgeLayoutTests extends ConfiguredGraphTests {
+
+    @Test
+    public void edgeRoutingConfiguration() throws InstantiationException {
+        ElasticGraph routedGraph = openGraph("edgeRoutingTests", "elasticsearch.edgeRouting", true);
+
+        Vertex hub = routedGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 10; i++) hub.addEdge("routed", routedGraph.addVertex(T.id, "routed" + i), T.id, "edge" + i, "weight", i);
+        assertEquals(10l, (long) routedGraph.traversal().V("hub").out("routed").count().next());
+        assertEquals(10l, (long) routedGraph.traversal().V().in("routed").count().next());
+
+        Edge edge = routedGraph.traversal().E("edge3").next();
+        assertEquals(3, (int) edge.value("weight"));
+        edge.property("weight", 30);
+        assertEquals(30, routedGraph.traversal().E("edge3").values("weight").next());
+
+        edge.remove();
+        assertEquals(9l, (long) routedGraph.traversal().V("hub").outE("routed").count().next());
+    }
+
+    @Test
+    public void edgeIndicesConfiguration() throws InstantiationException {
+        ElasticGraph partitionedGraph = openGraph("edgeIndicesTests", "elasticsearch.edgeIndices", true);
+
+        Vertex hub = partitionedGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 10; i++) hub.addEdge("partitioned", partitionedGraph.addVertex(T.id, "partitioned" + i), T.id, "edge" + i, "weight", i);
+        assertEquals(10l, (long) partitionedGraph.traversal().V("hub").out("partitioned").count().next());
+        assertEquals(10l, (long) partitionedGraph.traversal().V().in("partitioned").count().next());
+        assertEquals(10l, (long) partitionedGraph.traversal().V("hub").both("partitioned").count().next());
+        assertEquals(10l, (long) partitionedGraph.traversal().E().count().next());
+
+        Edge edge = partitionedGraph.traversal().E("edge3").next();
+        edge.property("weight", 30);
+        assertEquals(30, partitionedGraph.traversal().V("partitioned3").inE("partitioned").values("weight").next());
+
+        edge.remove();
+        assertEquals(9l, (long) partitionedGraph.traversal().V("hub").outE("partitioned").count().next());
+        assertEquals(0l, (long) partitionedGraph.traversal().V("partitioned3").inE("partitioned").count().next());
+
+        // both copies of a self loop match a search of both directions, but it takes a single place in the limit
+        hub.addEdge("partitioned", hub, T.id, "loop");
+        assertEquals(10, partitionedGraph.traversal().V("hub").bothE("partitioned").limit(10).toList().size());
+        assertEquals(10, partitionedGraph.traversal().V("hub").bothE("partitioned").toList().size());
+    }
+
+    @Test
+    public void inlineAdjacencyConfiguration() throws InstantiationException {
+        ElasticGraph inlineGraph = openGraph("inlineAdjacencyTests", "elasticsearch.inlineAdjacency", 3);
+
+        Vertex hub = inlineGraph.addVertex(T.id, "hub");
+        Vertex first = inlineGraph.addVertex(T.id, "first", "name", "first");
+        hub.addEdge("knows", first);
+        hub.addEdge("likes", inlineGraph.addVertex(T.id, "second", "name", "second"));
+        first.addEdge("knows", hub);
+        assertEquals(2l, (long) inlineGraph.traversal().V("hub").out().count().next());
+        assertEquals("first", inlineGraph.traversal().V("hub").out("knows").values("name").next());
+        assertEquals(3l, (long) inlineGraph.traversal().V("hub").both().count().next());
+        assertEquals(1l, (long) inlineGraph.traversal().V("first").in("knows").count().next());
+
+        // the fourth edge passes the threshold and the hub's edges are searched for from then on
+        hub.addEdge("likes", inlineGraph.addVertex(T.id, "third"));
+        assertEquals(3l, (long) inlineGraph.traversal().V("hub").out().count().next());
+
+        inlineGraph.traversal().V("first").outE("knows").next().remove();
+        assertEquals(0l, (long) inlineGraph.traversal().V("first").out().count().next());
+        assertEquals(0l, (long) inlineGraph.traversal().V("hub").in().count().next());
+    }
+
+    @Test
+    public void edgeVertexPropertiesConfiguration() throws InstantiationException {
+        ElasticGraph copyingGraph = openGraph("edgeVertexPropertiesTests", "elasticsearch.edgeVertexProperties", "name,status");
+
+        Vertex hub = copyingGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 10; i++) hub.addEdge("copied", copyingGraph.addVertex(T.id, "copied" + i, "name", "copied" + i, "status", i % 2 == 0 ? "active" : "idle"));
+        assertEquals(5l, (long) copyingGraph.traversal().V("hub").out("copied").has("status", "active").count().next());
+        assertEquals("copied3", copyingGraph.traversal().V("hub").out("copied").has("status", "idle").has("name", "copied3").values("name").next());
+
+        // the copies follow the vertex's properties
+        copyingGraph.traversal().V("copied3").next().property("status", "active");
+        assertEquals(6l, (long) copyingGraph.traversal().V("hub").out("copied").has("status", "active").count().next());
+        copyingGraph.traversal().V("copied4").next().property("status").remove();
+        assertEquals(5l, (long) copyingGraph.traversal().V("hub").out("copied").has("status", "active").count().next());
+        assertEquals(9l, (long) copyingGraph.traversal().V("hub").out("copied").values("status").count().next());
+    }
+
+    @Test
+    public void edgeVertexPropertiesWithBulk() throws InstantiationException {
+        ElasticGraph copyingGraph = openGraph("bulkEdgeVertexPropertiesTests", "elasticsearch.edgeVertexProperties", "status",
+                "elasticsearch.bulk", true);
+
+        // the edge is still in the bulk when commit writes the vertex's new status to its edges
+        Vertex hub = copyingGraph.addVertex(T.id, "hub");
+        Vertex copied = copyingGraph.addVertex(T.id, "copied", "status", "idle");
+        hub.addEdge("copied", copied);
+        copied.property("status", "active");
+        copyingGraph.commit();
+        assertEquals(1l, (long) copyingGraph.traversal().V("hub").out("copied").has("status", "active").count().next());
+        assertEquals(0l, (long) copyingGraph.traversal().V("hub").out("copied").has("status", "idle").count().next());
+    }
+}
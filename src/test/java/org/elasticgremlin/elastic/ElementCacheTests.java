@@ -0,0 +1,48 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElementCacheTests extends ConfiguredGraphTests {
+
+    @Test
+    public void elementCacheConfiguration() throws InstantiationException {
+        ElasticGraph cachedGraph = openGraph("cacheTests", "elasticsearch.cache.sizeMb", 10);
+
+        Vertex hub = cachedGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 5; i++) hub.addEdge("cached", cachedGraph.addVertex(T.id, "cached" + i, "value", i));
+        assertEquals(10, cachedGraph.traversal().V("hub").out("cached").values("value").sum().next().intValue());
+        assertEquals(10, cachedGraph.traversal().V("hub").out("cached").values("value").sum().next().intValue());
+        assertTrue(cachedGraph.getElementCache().getHits() > 0);
+
+        cachedGraph.traversal().V("cached0").next().property("value", 10);
+        assertEquals(20, cachedGraph.traversal().V("hub").out("cached").values("value").sum().next().intValue());
+    }
+
+    @Test
+    public void cachedEdgesAreBuiltPerThread() throws Exception {
+        ElasticGraph cachedGraph = openGraph("threadCacheTests", "elasticsearch.cache.sizeMb", 10);
+
+        Vertex hub = cachedGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 5; i++) hub.addEdge("cached", cachedGraph.addVertex(T.id, "cached" + i));
+        List<Edge> edges = cachedGraph.traversal().V("hub").outE("cached").toList();
+
+        long hits = cachedGraph.getElementCache().getHits();
+        FutureTask<List<Edge>> otherThread = new FutureTask<>(() -> cachedGraph.traversal().V("hub").outE("cached").toList());
+        new Thread(otherThread).start();
+        List<Edge> otherEdges = otherThread.get();
+        assertTrue(cachedGraph.getElementCache().getHits() > hits);
+
+        assertEquals(new HashSet<>(edges), new HashSet<>(otherEdges));
+        Set<Edge> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        shared.addAll(edges);
+        otherEdges.forEach(edge -> assertTrue(shared.add(edge)));
+    }
+}
@@ -0,0 +1,235 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.tinkerpop.gremlin.LoadGraphWith;
+import org.apache.tinkerpop.gremlin.process.traversal.*;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.__;
+import org.apache.tinkerpop.gremlin.process.traversal.dsl.graph.GraphTraversalSource;
+import org.apache.tinkerpop.gremlin.process.traversal.step.util.HasContainer;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.ElasticGraphGraphProvider;
+import org.elasticgremlin.queryhandler.*;
+import org.elasticgremlin.structure.*;
+import org.javatuples.Pair;
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OptimizationTests {
+
+    private Graph graph;
+    private GraphTraversalSource g;
+
+    @Before
+    public void startUp() throws InstantiationException, IOException, ExecutionException, InterruptedException {
+        ElasticGraphGraphProvider elasticGraphProvider = new ElasticGraphGraphProvider();
+        final Configuration configuration = elasticGraphProvider.newGraphConfiguration("testGraph", this.getClass(), "optimizationTests", LoadGraphWith.GraphData.MODERN);
+        this.graph = elasticGraphProvider.openTestGraph(configuration);
+        this.g = graph.traversal();
+
+        Vertex hub = graph.addVertex(T.id, "hub", T.label, "hub");
+        for (int i = 0; i < 20; i++) {
+            Vertex vertex = graph.addVertex(T.label, "item", "group", i % 2 == 0 ? "even" : "odd", "score", i);
+            hub.addEdge("contains", vertex, "weight", i);
+        }
+    }
+
+    @Test
+    public void limitAfterGraphStep() {
+        assertEquals(5, g.V().has("group", "even").limit(5).toList().size());
+        assertEquals(4, g.V().has("group", "odd").range(3, 7).toList().size());
+        assertEquals(7, g.V().has("group", "odd").range(3, -1).toList().size());
+        assertEquals(0, g.V().has("group", "odd").limit(0).toList().size());
+    }
+
+    @Test
+    public void limitLargerThanScrollPage() {
+        for (int i = 0; i < 600; i++)
+            graph.addVertex(T.label, "bulkItem");
+
+        assertEquals(550, g.V().hasLabel("bulkItem").limit(550).toList().size());
+        assertEquals(600, g.V().hasLabel("bulkItem").toList().size());
+    }
+
+    @Test
+    public void limitAfterVertexStep() {
+        assertEquals(3, g.V("hub").out("contains").limit(3).toList().size());
+        assertEquals(3, g.V("hub").outE("contains").range(2, 5).toList().size());
+        assertEquals(2, g.V().hasLabel("item").in("contains").limit(2).toList().size());
+    }
+
+    @Test
+    public void countAfterGraphStep() {
+        assertEquals(21l, (long) g.V().count().next());
+        assertEquals(10l, (long) g.V().has("group", "even").count().next());
+        assertEquals(3l, (long) g.V().has("group", "odd").range(2, 5).count().next());
+        assertEquals(20l, (long) g.E().hasLabel("contains").count().next());
+    }
+
+    @Test
+    public void countAfterVertexStep() {
+        assertEquals(20l, (long) g.V("hub").outE("contains").count().next());
+        assertEquals(20l, (long) g.V().hasLabel("item").in("contains").count().next());
+        assertEquals(5l, (long) g.V("hub").outE("contains").has("weight", P.lt(5)).count().next());
+        assertEquals(0l, (long) g.V("hub").in().count().next());
+    }
+
+    @Test
+    public void groupCountAfterGraphStep() {
+        Map<Object, Long> groups = g.V().hasLabel("item").groupCount().by("group").next();
+        assertEquals(2, groups.size());
+        assertEquals(10l, (long) groups.get("even"));
+        assertEquals(10l, (long) groups.get("odd"));
+
+        Map<Object, Long> scores = g.V().has("group", "even").groupCount().by("score").next();
+        assertEquals(10, scores.size());
+        assertEquals(1l, (long) scores.get(4));
+
+        Map<Object, Object> labels = g.V().group().by("group").by().by(__.count(Scope.local)).next();
+        assertEquals(10l, (long) labels.get("odd"));
+    }
+
+    @Test
+    public void numericAggregationsAfterGraphStep() {
+        assertEquals(19, g.V().hasLabel("item").values("score").max().next());
+        assertEquals(1, g.V().has("group", "odd").values("score").min().next());
+        assertEquals(190d, g.V().hasLabel("item").values("score").sum().next());
+        assertEquals(9.5d, g.E().hasLabel("contains").values("weight").mean().next());
+        assertEquals(false, g.V().hasLabel("missing").values("score").max().hasNext());
+    }
+
+    @Test
+    public void orderWithLimitAfterGraphStep() {
+        List<Object> top = g.V().hasLabel("item").order().by("score", Order.decr).limit(3).values("score").toList();
+        assertEquals(Arrays.asList(19, 18, 17), top);
+
+        List<Object> page = g.V().has("group", "even").order().by("score").range(2, 4).values("score").toList();
+        assertEquals(Arrays.asList(4, 6), page);
+
+        List<Object> weights = g.E().hasLabel("contains").order().by("weight", Order.decr).limit(2).values("weight").toList();
+        assertEquals(Arrays.asList(19, 18), weights);
+    }
+
+    @Test
+    public void projectedProperties() {
+        assertEquals(Arrays.asList("odd"), g.V().hasLabel("item").has("score", 3).values("group").toList());
+        assertEquals(10, g.V("hub").out("contains").has("group", "even").values("score").toList().size());
+        assertEquals(20, g.V().hasLabel("item").id().toList().size());
+        assertEquals(5l, (long) g.V("hub").outE("contains").has("weight", P.lt(5)).inV().count().next());
+    }
+
+    @Test
+    public void missingPropertiesAreLoadedLazily() {
+        Predicates predicates = new Predicates();
+        predicates.hasContainers.add(new HasContainer("score", P.eq(3)));
+        predicates.propertyKeys = new HashSet<>(Arrays.asList("score"));
+        Vertex vertex = ((ElasticGraph) graph).getQueryHandler().vertices(predicates).next();
+
+        assertEquals(3, (int) vertex.value("score"));
+        assertEquals("odd", vertex.value("group"));
+        assertEquals(2, vertex.keys().size());
+    }
+
+    @Test
+    public void limitPerVertexInBatch() {
+        Vertex hub = g.V("hub").next();
+        Vertex smallHub = graph.addVertex(T.id, "smallHub", T.label, "hub");
+        for (int i = 0; i < 5; i++) smallHub.addEdge("contains", graph.addVertex(T.label, "item"), "weight", i);
+
+        Predicates predicates = new Predicates();
+        predicates.limitHigh = 3;
+        predicates.orders.add(new Pair<>("weight", Order.decr));
+        Map<Object, Set<Edge>> edges = ((LimitedEdgeHandler) ((ElasticGraph) graph).getQueryHandler()).limitedEdges(
+                Arrays.asList((BaseVertex) hub, (BaseVertex) smallHub).iterator(), Direction.OUT, new String[]{"contains"}, predicates);
+        assertEquals(new HashSet<>(Arrays.asList(19, 18, 17)), weights(edges.get("hub")));
+        assertEquals(new HashSet<>(Arrays.asList(4, 3, 2)), weights(edges.get("smallHub")));
+
+        assertEquals(4, g.V().hasLabel("hub").out("contains").limit(4).toList().size());
+        assertEquals(2, g.V().hasLabel("hub").outE("contains").limit(2).toList().size());
+    }
+
+    @Test
+    public void hasAfterVertexStep() {
+        assertEquals(10, g.V("hub").out("contains").has("group", "odd").toList().size());
+        assertEquals(4, g.V("hub").out("contains").has("score", P.lt(8)).has("group", "even").toList().size());
+        assertEquals(2, g.V("hub").out("contains").has("group", "odd").limit(2).toList().size());
+        assertEquals(3l, (long) g.V("hub").out("contains").has("score", P.gte(17)).count().next());
+        assertEquals(0, g.V().hasLabel("item").in("contains").hasLabel("item").toList().size());
+    }
+
+    @Test
+    public void batchedVertexSteps() {
+        assertEquals(20, g.V().hasLabel("item").in("contains").toList().size());
+        assertEquals(20, g.V("hub").out("contains").in("contains").toList().size());
+        assertEquals(400, g.V("hub").out("contains").in("contains").out("contains").toList().size());
+        assertEquals(10, g.V("hub").out("contains").in("contains").dedup().out("contains").has("group", "odd").toList().size());
+    }
+
+    @Test
+    public void repeatTimes() {
+        assertEquals(20, g.V("hub").repeat(__.out("contains")).times(1).toList().size());
+        assertEquals(400l, (long) g.V("hub").repeat(__.out("contains").in("contains")).times(1).out("contains").count().next());
+        assertEquals(400l, (long) g.V().hasLabel("item").repeat(__.in("contains").out("contains")).times(1).count().next());
+        assertEquals(8000l, (long) g.V("hub").repeat(__.out("contains").in("contains")).times(3).count().next());
+        assertEquals(0l, (long) g.V("hub").repeat(__.out("contains")).times(2).count().next());
+    }
+
+    @Test
+    public void shortestPath() {
+        Vertex a = graph.addVertex(T.id, "a");
+        Vertex b = graph.addVertex(T.id, "b");
+        Vertex c = graph.addVertex(T.id, "c");
+        Vertex d = graph.addVertex(T.id, "d");
+        Vertex e = graph.addVertex(T.id, "e");
+        a.addEdge("next", b);
+        b.addEdge("next", c);
+        c.addEdge("next", d);
+        a.addEdge("next", e);
+        d.addEdge("next", e);
+
+        Path path = g.V("a").repeat(__.out("next").simplePath()).until(__.hasId("d")).path().limit(1).next();
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(path));
+        path = g.V("d").repeat(__.both().simplePath()).until(__.hasId("a")).path().limit(1).next();
+        assertEquals(Arrays.asList("d", "e", "a"), ids(path));
+        assertEquals(false, g.V("d").repeat(__.out().simplePath()).until(__.hasId("a")).path().limit(1).hasNext());
+    }
+
+    @Test
+    public void coalescedPropertyWrites() {
+        Vertex vertex = graph.addVertex(T.id, "written", "a", 1);
+        vertex.property("b", 2);
+        vertex.property("a", 3);
+        vertex.property("c", 4);
+        vertex.property("c").remove();
+
+        Vertex loaded = g.V().has("a", 3).next();
+        assertEquals(3, (int) loaded.value("a"));
+        assertEquals(2, (int) loaded.value("b"));
+        assertEquals(false, loaded.property("c").isPresent());
+    }
+
+    @Test
+    public void oneInstancePerVertexId() {
+        List<Vertex> hubs = g.V("hub").out("contains").in("contains").toList();
+        assertEquals(20, hubs.size());
+        hubs.forEach(hub -> assertTrue(hub == hubs.get(0)));
+        assertEquals("hub", hubs.get(0).label());
+    }
+
+    private Set<Object> weights(Set<Edge> edges) {
+        Set<Object> weights = new HashSet<>();
+        edges.forEach(edge -> weights.add(edge.value("weight")));
+        return weights;
+    }
+
+    private List<Object> ids(Path path) {
+        List<Object> ids = new ArrayList<>();
+        path.objects().forEach(element -> ids.add(((Element) element).id()));
+        return ids;
+    }
+}
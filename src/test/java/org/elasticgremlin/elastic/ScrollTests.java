@@ -0,0 +1,44 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.queryhandler.SimpleQueryHandler;
+import org.elasticgremlin.queryhandler.elasticsearch.helpers.TimingAccessor;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.junit.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollTests extends ConfiguredGraphTests {
+
+    @Test
+    public void scrollPrefetchConfiguration() throws InstantiationException {
+        ElasticGraph prefetchGraph = openGraph("prefetchTests", "elasticsearch.scrollSize", 7, "elasticsearch.scrollPrefetch", 3);
+
+        for (int i = 0; i < 60; i++) prefetchGraph.addVertex(T.label, "page", "index", i);
+        assertEquals(60, prefetchGraph.traversal().V().hasLabel("page").toList().size());
+        assertEquals(20, prefetchGraph.traversal().V().hasLabel("page").limit(20).toList().size());
+        assertEquals(60, prefetchGraph.traversal().V().hasLabel("page").values("index").dedup().toList().size());
+    }
+
+    @Test
+    public void scanParallelismConfiguration() throws InstantiationException {
+        ElasticGraph parallelGraph = openGraph("parallelScanTests", "elasticsearch.scrollSize", 5, "elasticsearch.scanParallelism", 4);
+
+        Vertex hub = parallelGraph.addVertex(T.id, "hub");
+        for (int i = 0; i < 40; i++) hub.addEdge("scanned", parallelGraph.addVertex(T.id, "scanned" + i));
+        TimingAccessor.Timer parallelScan = ((SimpleQueryHandler) parallelGraph.getQueryHandler()).getTiming().timer("parallelScan");
+
+        assertEquals(41, parallelGraph.traversal().V().dedup().toList().size());
+        int vertexScanRuns = parallelScan.getRuns();
+        assertTrue(vertexScanRuns > 0);
+        assertEquals(40, parallelGraph.traversal().E().dedup().toList().size());
+        assertTrue(parallelScan.getRuns() > vertexScanRuns);
+
+        // searches that filter, order or limit keep to a single scroll
+        int runs = parallelScan.getRuns();
+        assertEquals(3, parallelGraph.traversal().V().limit(3).toList().size());
+        assertEquals(40, parallelGraph.traversal().E().hasLabel("scanned").toList().size());
+        assertEquals(runs, parallelScan.getRuns());
+    }
+}
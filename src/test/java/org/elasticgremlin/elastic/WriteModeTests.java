@@ -0,0 +1,87 @@
+package org.elasticgremlin.elastic;
+
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.elasticgremlin.structure.ElasticGraph;
+import org.elasticsearch.ElasticsearchException;
+import org.junit.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteModeTests extends ConfiguredGraphTests {
+
+    @Test
+    public void bulkConfiguration() throws InstantiationException {
+        ElasticGraph bulkGraph = openGraph("bulkTests", "elasticsearch.bulk", true, "elasticsearch.bulk.actions", 10);
+
+        for (int i = 0; i < 25; i++) bulkGraph.addVertex(T.id, "bulk" + i);
+        bulkGraph.commit();
+        assertEquals(25, bulkGraph.traversal().V().toList().size());
+
+        bulkGraph.addVertex(T.id, "bulk0");
+        try {
+            bulkGraph.commit();
+            fail("the duplicate vertex should fail its bulk item");
+        }
+        catch (ElasticsearchException e) {
+            assertTrue(e.getMessage().contains("bulk0"));
+        }
+    }
+
+    @Test
+    public void asyncConfiguration() throws InstantiationException {
+        ElasticGraph asyncGraph = openGraph("asyncTests", "elasticsearch.async", true, "elasticsearch.async.maxInFlight", 4);
+
+        for (int i = 0; i < 25; i++) asyncGraph.addVertex(T.id, "async" + i);
+        asyncGraph.flush();
+        assertEquals(25, asyncGraph.traversal().V().toList().size());
+
+        // an update waits for the write that creates its document instead of overtaking it
+        for (int i = 0; i < 10; i++) asyncGraph.addVertex(T.id, "ordered" + i, "field", "a").property("field", "b");
+        assertEquals(10l, (long) asyncGraph.traversal().V().has("field", "b").count().next());
+        asyncGraph.flush();
+
+        asyncGraph.addVertex(T.id, "async0");
+        try {
+            asyncGraph.flush();
+            fail("the duplicate vertex should fail its write");
+        }
+        catch (ElasticsearchException e) {
+            assertTrue(e.getMessage().contains("async0"));
+        }
+    }
+
+    @Test
+    public void closeFlushesPendingUpdates() throws InstantiationException {
+        ElasticGraph closedGraph = openGraph("closeTests");
+        closedGraph.addVertex(T.id, "closed", "field", "a");
+        closedGraph.traversal().V("closed").next().property("field", "b");
+
+        Graph reopenedGraph = reopenGraph(closedGraph);
+        assertEquals("b", reopenedGraph.traversal().V("closed").values("field").next());
+    }
+
+    @Test
+    public void overlayConfiguration() throws InstantiationException {
+        ElasticGraph overlayGraph = openGraph("overlayTests", "elasticsearch.refresh", false, "elasticsearch.overlay", true);
+
+        Vertex hub = overlayGraph.addVertex(T.id, "hub", "group", "a");
+        for (int i = 0; i < 5; i++) hub.addEdge("member", overlayGraph.addVertex(T.id, "member" + i, "group", "a"));
+        assertEquals(6, overlayGraph.traversal().V().has("group", "a").toList().size());
+        assertEquals(5, overlayGraph.traversal().V("hub").out("member").toList().size());
+        assertEquals(3, overlayGraph.traversal().V().has("group", "a").limit(3).toList().size());
+
+        // a changed or removed element leaves the results of searches it no longer matches
+        overlayGraph.traversal().V("member0").next().property("group", "b");
+        overlayGraph.traversal().V("member1").next().remove();
+        assertEquals(4, overlayGraph.traversal().V().has("group", "a").toList().size());
+        assertEquals("member0", overlayGraph.traversal().V().has("group", "b").id().next());
+        assertEquals(4, overlayGraph.traversal().V("hub").out("member").toList().size());
+
+        // commit refreshes the index, after which the same searches are answered by ES alone
+        overlayGraph.commit();
+        assertEquals(4, overlayGraph.traversal().V().has("group", "a").toList().size());
+        assertEquals(4, overlayGraph.traversal().V("hub").out("member").toList().size());
+    }
+}
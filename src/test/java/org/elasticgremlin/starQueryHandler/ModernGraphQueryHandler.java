@@ -29,16 +29,16 @@ public class ModernGraphQueryHandler implements QueryHandler {
     public void init(ElasticGraph graph, Configuration configuration) throws IOException {
         String indexName = configuration.getString("elasticsearch.index.name", "graph");
         boolean refresh = configuration.getBoolean("elasticsearch.refresh", false);
-        int scrollSize = configuration.getInt("elasticsearch.scrollSize", 100);
+        ScrollSettings scroll = new ScrollSettings(configuration, 100);
 
         this.client = ElasticClientFactory.create(configuration);
         ElasticHelper.createIndex(indexName, client);
 
         timing = new TimingAccessor();
         elasticMutations = new ElasticMutations(false, client, timing);
-        this.docVertexHandler = new DocVertexHandler(graph, client, elasticMutations, indexName, scrollSize, refresh, timing);
-        this.starHandler = new StarHandler(graph, client, elasticMutations, indexName, scrollSize, refresh, timing,
-                new BasicEdgeMapping("knows", "person", Direction.OUT, "knows-fk"), new BasicEdgeMapping("created", "software", Direction.OUT, "created-fk"));
+        this.docVertexHandler = new DocVertexHandler(graph, client, elasticMutations, indexName, scroll, refresh, timing);
+        this.starHandler = new StarHandler(graph, client, elasticMutations, indexName, scroll, refresh, timing,
+                new BasicEdgeMapping("knows", "person", Direction.OUT, "knows-fk", true), new BasicEdgeMapping("created", "software", Direction.OUT, "created-fk", true));
 
         this.vertexHandlers = new HashMap<>();
         this.vertexHandlers.put(PERSON, starHandler);
@@ -50,21 +50,25 @@ public class ModernGraphQueryHandler implements QueryHandler {
 
     @Override
     public Iterator<Edge> edges() {
+        elasticMutations.flush();
         return starHandler.edges();
     }
 
     @Override
     public Iterator<Edge> edges(Object[] edgeIds) {
+        elasticMutations.flush();
         return starHandler.edges(edgeIds);
     }
 
     @Override
     public Iterator<Edge> edges(Predicates predicates) {
+        elasticMutations.flush();
         return starHandler.edges(predicates);
     }
 
     @Override
     public Map<Object, Set<Edge>> edges(Iterator<BaseVertex> vertices, Direction direction, String[] edgeLabels, Predicates predicates) {
+        elasticMutations.flush();
         return starHandler.edges(vertices, direction, edgeLabels, predicates);
     }
 
@@ -75,6 +79,7 @@ public class ModernGraphQueryHandler implements QueryHandler {
 
     @Override
     public Iterator<? extends Vertex> vertices() {
+        elasticMutations.flush();
         final Iterator<Vertex> starVertices = (Iterator<Vertex>) starHandler.vertices();
         final Iterator<Vertex> docVertices = docVertexHandler.vertices();
 
@@ -91,6 +96,7 @@ public class ModernGraphQueryHandler implements QueryHandler {
 
     @Override
     public Iterator<? extends Vertex> vertices(Predicates predicates) {
+        elasticMutations.flush();
         String label = extractLabel(predicates.hasContainers);
         if (label == null) {
             Iterator<? extends Vertex> vertices = vertices();
@@ -138,7 +144,11 @@ public class ModernGraphQueryHandler implements QueryHandler {
                 passedVertices.add(vertex);
             }
         });
-        return passedVertices.iterator();
+
+        passedVertices.sort(ElasticHelper.createComparator(predicates.orders));
+        int fromIndex = (int) Math.min(predicates.limitLow, passedVertices.size());
+        int toIndex = (int) Math.min(predicates.limitHigh, passedVertices.size());
+        return passedVertices.subList(fromIndex, Math.max(fromIndex, toIndex)).iterator();
     }
 
     private String extractLabel(ArrayList<HasContainer> hasContainers) {
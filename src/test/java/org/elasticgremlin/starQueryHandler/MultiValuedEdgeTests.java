@@ -0,0 +1,56 @@
+package org.elasticgremlin.starQueryHandler;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.tinkerpop.gremlin.LoadGraphWith;
+import org.apache.tinkerpop.gremlin.structure.*;
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MultiValuedEdgeTests {
+
+    private Graph graph;
+
+    @Before
+    public void startUp() throws InstantiationException, IOException, ExecutionException, InterruptedException {
+        ModernGraphGraphProvider graphProvider = new ModernGraphGraphProvider();
+        final Configuration configuration = graphProvider.newGraphConfiguration("testGraph", this.getClass(), "multiValuedEdgeTests",
+                new HashMap<>(), LoadGraphWith.GraphData.MODERN);
+        this.graph = graphProvider.openTestGraph(configuration);
+    }
+
+    @Test
+    public void innerEdgesOfOneDocument() {
+        Vertex marko = graph.addVertex(T.label, "person", T.id, "marko");
+        for (int i = 0; i < 3; i++) marko.addEdge("created", graph.addVertex(T.label, "software", T.id, "software" + i));
+
+        // all the ids are kept in one array on marko's document, each of them an edge of its own
+        Set<Object> created = new HashSet<>();
+        graph.traversal().V("marko").out("created").id().forEachRemaining(created::add);
+        assertEquals(new HashSet<>(Arrays.asList("software0", "software1", "software2")), created);
+        assertEquals(3l, (long) graph.traversal().V("marko").outE("created").count().next());
+
+        // the edges are found from their other side by a terms search on the array
+        assertEquals("marko", graph.traversal().V("software1").in("created").id().next());
+        assertEquals(1l, (long) graph.traversal().V("software2").inE("created").count().next());
+    }
+
+    @Test
+    public void duplicateInnerEdge() {
+        Vertex marko = graph.addVertex(T.label, "person", T.id, "marko");
+        Vertex lop = graph.addVertex(T.label, "software", T.id, "lop");
+        marko.addEdge("created", lop);
+        try {
+            marko.addEdge("created", lop);
+            fail("a document holds a single edge per label and external vertex");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals(1l, (long) graph.traversal().V("marko").out("created").count().next());
+        }
+    }
+}